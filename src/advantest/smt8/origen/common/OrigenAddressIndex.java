@@ -0,0 +1,192 @@
+package origen.common;
+
+import java.util.Arrays;
+
+/**
+ * Primitive open-addressing hash index from a long key (typically an address) to an int slot
+ *
+ * <p>Used by OrigenData to find the location of an address in the per-site storage in constant
+ * time, instead of scanning the whole address array. Keys and slots are kept in plain arrays, so no
+ * boxing happens on lookup or insert.
+ *
+ * <p>Slots must be >= 0, a negative value is used internally to mark an empty bucket. Collisions
+ * are resolved with linear probing, the table is doubled when it gets more than half full.
+ */
+class OrigenAddressIndex {
+  /** Returned by get() when the key is not in the index */
+  static final int NOT_FOUND = -1;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private long[] keys;
+  private int[] slots;
+  private int size;
+  private int mask;
+  private int shift;
+
+  /** Constructor, creates an empty index */
+  OrigenAddressIndex() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * Constructor, creates an empty index that can hold the given number of keys without rehashing
+   *
+   * @param expectedKeys
+   */
+  OrigenAddressIndex(int expectedKeys) {
+    allocate(tableSizeFor(expectedKeys));
+  }
+
+  /**
+   * Returns the slot stored for this key, or NOT_FOUND
+   *
+   * @param key
+   * @return
+   */
+  int get(long key) {
+    int i = bucket(key);
+    while (slots[i] != NOT_FOUND) {
+      if (keys[i] == key) {
+        return slots[i];
+      }
+      i = (i + 1) & mask;
+    }
+    return NOT_FOUND;
+  }
+
+  /**
+   * Returns true if the key is in the index
+   *
+   * @param key
+   * @return
+   */
+  boolean contains(long key) {
+    return get(key) != NOT_FOUND;
+  }
+
+  /**
+   * Stores the slot for a key, overwriting the previous slot if the key is already present
+   *
+   * @param key
+   * @param slot must be >= 0
+   */
+  void put(long key, int slot) {
+    if (slot < 0) {
+      throw new Error("Slot must be positive, got: " + slot);
+    }
+    int i = bucket(key);
+    while (slots[i] != NOT_FOUND) {
+      if (keys[i] == key) {
+        slots[i] = slot;
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    slots[i] = slot;
+    size++;
+    if (size * 2 > keys.length) {
+      rehash(keys.length * 2);
+    }
+  }
+
+  /**
+   * Removes a key from the index
+   *
+   * @param key
+   * @return the slot that was stored for this key, or NOT_FOUND
+   */
+  int remove(long key) {
+    int i = bucket(key);
+    while (slots[i] != NOT_FOUND) {
+      if (keys[i] == key) {
+        int slot = slots[i];
+        closeGap(i);
+        size--;
+        return slot;
+      }
+      i = (i + 1) & mask;
+    }
+    return NOT_FOUND;
+  }
+
+  /** Returns the number of keys in the index */
+  int size() {
+    return size;
+  }
+
+  /** Returns an independent copy of this index */
+  OrigenAddressIndex copy() {
+    OrigenAddressIndex copy = new OrigenAddressIndex(0);
+    copy.keys = keys.clone();
+    copy.slots = slots.clone();
+    copy.size = size;
+    copy.mask = mask;
+    copy.shift = shift;
+    return copy;
+  }
+
+  /** Removes all keys */
+  void clear() {
+    Arrays.fill(slots, NOT_FOUND);
+    size = 0;
+  }
+
+  // Some private helper functions
+
+  private int bucket(long key) {
+    // Fibonacci hashing, spreads sequential addresses over the whole table
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  /**
+   * Backward shift deletion, moves the following keys of the probe sequence into the freed bucket
+   * so lookups never have to skip over removed entries
+   */
+  private void closeGap(int gap) {
+    int i = gap;
+    while (true) {
+      i = (i + 1) & mask;
+      if (slots[i] == NOT_FOUND) {
+        break;
+      }
+      int home = bucket(keys[i]);
+      // Move the key if its home bucket is not between the gap and its current bucket
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        keys[gap] = keys[i];
+        slots[gap] = slots[i];
+        gap = i;
+      }
+    }
+    slots[gap] = NOT_FOUND;
+  }
+
+  private static int tableSizeFor(int expectedKeys) {
+    int n = MIN_CAPACITY;
+    while (n < expectedKeys * 2) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    slots = new int[capacity];
+    Arrays.fill(slots, NOT_FOUND);
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    size = 0;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldSlots = slots;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldSlots[i] != NOT_FOUND) {
+        put(oldKeys[i], oldSlots[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package origen.common;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Primitive sorted set of addresses, used by OrigenData to keep the unique addresses of all sites
+ *
+ * <p>New addresses are appended to a pending buffer (constant time, membership checked with an
+ * OrigenAddressIndex), or straight to the sorted array when they are above all addresses in it. The
+ * writer calls flush() at the end of a write, which sorts the pending buffer and merges it into the
+ * sorted array, so a bulk write of N addresses costs O(N log N) instead of a full rebuild. Reading
+ * never modifies the set, so any number of threads can read it while nobody writes. Nothing is
+ * boxed.
+ */
+class OrigenAddressSet {
+  private static final int MIN_CAPACITY = 16;
+
+  private OrigenAddressIndex members = new OrigenAddressIndex();
+  private long[] sorted = new long[0];
+  private int sortedSize;
+  private long[] pending = new long[MIN_CAPACITY];
+  private int pendingSize;
+
+  /**
+   * Adds an address to the set
+   *
+   * @param a
+   * @return true if the address was not in the set yet
+   */
+  boolean add(long a) {
+    if (members.contains(a)) {
+      return false;
+    }
+    members.put(a, 0);
+    if (pendingSize == 0 && (sortedSize == 0 || a > sorted[sortedSize - 1])) {
+      // Ascending adds, e.g. loading an image in address order, need no merge
+      if (sortedSize == sorted.length) {
+        sorted = Arrays.copyOf(sorted, Math.max(sorted.length * 2, MIN_CAPACITY));
+      }
+      sorted[sortedSize++] = a;
+      return true;
+    }
+    if (pendingSize == pending.length) {
+      pending = Arrays.copyOf(pending, pending.length * 2);
+    }
+    pending[pendingSize++] = a;
+    return true;
+  }
+
+  /**
+   * Returns true if the address is in the set
+   *
+   * @param a
+   * @return
+   */
+  boolean contains(long a) {
+    return members.contains(a);
+  }
+
+  /** Returns the number of addresses in the set, not counting those added after the last flush() */
+  int size() {
+    return sortedSize;
+  }
+
+  /**
+   * Returns the address at a position, in ascending order
+   *
+   * @param i 0..size()-1
+   * @return
+   */
+  long get(int i) {
+    if (i < 0 || i >= sortedSize) {
+      throw new IndexOutOfBoundsException("Index: " + i + ", number of addresses: " + sortedSize);
+    }
+    return sorted[i];
+  }
+
+  /**
+   * Returns the position of the smallest address >= a, or size() if there is none
+   *
+   * @param a
+   * @return
+   */
+  int ceilingIndex(long a) {
+    int i = Arrays.binarySearch(sorted, 0, sortedSize, a);
+    return i >= 0 ? i : -i - 1;
+  }
+
+  /**
+   * Calls the visitor for each address in lo..hi (both inclusive), in ascending order
+   *
+   * @param lo
+   * @param hi
+   * @param visitor
+   */
+  void forEach(long lo, long hi, LongConsumer visitor) {
+    for (int i = ceilingIndex(lo); i < sortedSize && sorted[i] <= hi; i++) {
+      visitor.accept(sorted[i]);
+    }
+  }
+
+  /** Returns an independent copy of this set */
+  OrigenAddressSet copy() {
+    OrigenAddressSet copy = new OrigenAddressSet();
+    copy.members = members.copy();
+    copy.sorted = Arrays.copyOf(sorted, sortedSize);
+    copy.sortedSize = sortedSize;
+    copy.pending = Arrays.copyOf(pending, pending.length);
+    copy.pendingSize = pendingSize;
+    return copy;
+  }
+
+  /** Removes all addresses */
+  void clear() {
+    members.clear();
+    sortedSize = 0;
+    pendingSize = 0;
+  }
+
+  /** Sorts the pending addresses and merges them into the sorted array, called by the writer */
+  void flush() {
+    if (pendingSize == 0) {
+      return;
+    }
+    Arrays.sort(pending, 0, pendingSize);
+    int n = sortedSize + pendingSize;
+    if (n > sorted.length) {
+      sorted = Arrays.copyOf(sorted, Math.max(n, Math.max(sorted.length * 2, MIN_CAPACITY)));
+    }
+    // Merge from the back, so no temporary array is needed
+    int i = sortedSize - 1;
+    int j = pendingSize - 1;
+    for (int k = n - 1; j >= 0; k--) {
+      if (i >= 0 && sorted[i] > pending[j]) {
+        sorted[k] = sorted[i--];
+      } else {
+        sorted[k] = pending[j--];
+      }
+    }
+    sortedSize = n;
+    pendingSize = 0;
+  }
+}
@@ -0,0 +1,321 @@
+package origen.common;
+
+/**
+ * Checksum that OrigenData keeps up to date on every write, see OrigenData.trackChecksum()
+ *
+ * <p>A checksum is built from a contribution per set word. Contributions are combined with add() and
+ * removed with subtract(), which must form a group with 0 as the contribution of nothing (e.g. XOR
+ * or addition). OrigenData keeps one accumulator for the common data plus one per site for the
+ * words the site overrides, so a write only costs the contributions of the old and the new word,
+ * and reading a checksum is O(1).
+ *
+ * <p>Available checksums:
+ *
+ * <ul>
+ *   <li>sum(bits): sum of all data parts, modulo 2^bits
+ *   <li>crc16(lo, hi): CRC-16/MODBUS (poly 0xA001 reflected, init 0xFFFF), the checksum16bits of
+ *       the SMT7 library
+ *   <li>crc32(lo, hi): CRC-32 as used by zip and Ethernet
+ *   <li>crc(...): any other reflected CRC of 8 to 32 bits
+ * </ul>
+ *
+ * <p>A CRC is computed over the byte image of the word addresses lo..hi (both inclusive). Each word
+ * takes getWordWidth() / 8 (rounded up) bytes, least significant byte first, the same layout as
+ * OrigenDataImage writes by default. Words that are not set count as fill bytes (0xFF, erased).
+ * Because a CRC is linear, the contribution of a word is the CRC of its difference to the fill
+ * bytes, shifted to its position in the image with a GF(2) multiplication in O(log(image size)).
+ *
+ * <p>One instance is attached to one OrigenData. Contributions may be computed from several threads
+ * at once (OrigenConcurrentData), so implementations must not keep state per call.
+ */
+public abstract class OrigenChecksum {
+  private int wordWidth;
+  private int partWidth;
+
+  /**
+   * Returns the contribution of a set word to the checksum
+   *
+   * @param addr
+   * @param word all getNumParts() parts of the stored word
+   * @return
+   */
+  protected abstract long contribution(long addr, long[] word);
+
+  /**
+   * Adds a contribution to an accumulator
+   *
+   * @param acc
+   * @param contribution
+   * @return
+   */
+  protected abstract long add(long acc, long contribution);
+
+  /**
+   * Removes a contribution from an accumulator, the inverse of add()
+   *
+   * @param acc
+   * @param contribution
+   * @return
+   */
+  protected abstract long subtract(long acc, long contribution);
+
+  /**
+   * Turns the accumulator of all set words into the checksum value
+   *
+   * @param acc
+   * @return
+   */
+  protected long finish(long acc) {
+    return acc;
+  }
+
+  /**
+   * Called once when the checksum is attached to an OrigenData, before any contribution
+   *
+   * @param wordWidth number of bits per data word
+   * @param partWidth number of bits per part of the data
+   */
+  protected void attach(int wordWidth, int partWidth) {
+    this.wordWidth = wordWidth;
+    this.partWidth = partWidth;
+  }
+
+  /** Returns the number of bits per data word of the attached OrigenData */
+  protected final int getWordWidth() {
+    return wordWidth;
+  }
+
+  /** Returns the number of bytes per data word in the byte image */
+  protected final int getBytesPerWord() {
+    return (wordWidth + 7) / 8;
+  }
+
+  /**
+   * Returns byte i of a word in the byte image, least significant byte first
+   *
+   * @param word
+   * @param i
+   * @return
+   */
+  protected final int wordByte(long[] word, int i) {
+    int value = 0;
+    int bit = 8 * i;
+    for (int done = 0; done < 8 && bit + done < wordWidth; ) {
+      int part = (bit + done) / partWidth;
+      int offset = (bit + done) % partWidth;
+      int take = Math.min(Math.min(8 - done, partWidth - offset), wordWidth - bit - done);
+      value |= (int) ((word[part] >>> offset) & ((1L << take) - 1)) << done;
+      done += take;
+    }
+    return value;
+  }
+
+  /**
+   * Returns the sum of all data parts, modulo 2^bits
+   *
+   * @param bits 1..64
+   * @return
+   */
+  public static OrigenChecksum sum(int bits) {
+    return new Sum(bits);
+  }
+
+  /**
+   * Returns the CRC-16/MODBUS of the byte image of the word addresses lo..hi
+   *
+   * @param lo
+   * @param hi
+   * @return
+   */
+  public static OrigenChecksum crc16(long lo, long hi) {
+    return new Crc(16, 0xA001, 0xFFFF, 0, 0xFF, lo, hi);
+  }
+
+  /**
+   * Returns the CRC-32 of the byte image of the word addresses lo..hi
+   *
+   * @param lo
+   * @param hi
+   * @return
+   */
+  public static OrigenChecksum crc32(long lo, long hi) {
+    return new Crc(32, 0xEDB88320L, 0xFFFFFFFFL, 0xFFFFFFFFL, 0xFF, lo, hi);
+  }
+
+  /**
+   * Returns a reflected CRC of the byte image of the word addresses lo..hi
+   *
+   * @param width number of CRC bits, 8..32
+   * @param poly reflected polynomial, e.g. 0xEDB88320 for CRC-32
+   * @param init initial register value
+   * @param xorOut value XORed with the final register
+   * @param fill byte value of words that are not set
+   * @param lo
+   * @param hi
+   * @return
+   */
+  public static OrigenChecksum crc(
+      int width, long poly, long init, long xorOut, int fill, long lo, long hi) {
+    return new Crc(width, poly, init, xorOut, fill, lo, hi);
+  }
+
+  /** Sum of all data parts */
+  private static class Sum extends OrigenChecksum {
+    private final long mask;
+
+    Sum(int bits) {
+      if (bits < 1 || bits > 64) {
+        throw new Error("Checksum sum width must be 1 to 64 bits, got: " + bits);
+      }
+      mask = bits == 64 ? -1L : (1L << bits) - 1;
+    }
+
+    @Override
+    protected long contribution(long addr, long[] word) {
+      long sum = 0;
+      for (long part : word) {
+        sum += part;
+      }
+      return sum;
+    }
+
+    @Override
+    protected long add(long acc, long contribution) {
+      return acc + contribution;
+    }
+
+    @Override
+    protected long subtract(long acc, long contribution) {
+      return acc - contribution;
+    }
+
+    @Override
+    protected long finish(long acc) {
+      return acc & mask;
+    }
+  }
+
+  /** Reflected table driven CRC over a window of the byte image */
+  private static class Crc extends OrigenChecksum {
+    private final long poly;
+    private final long init;
+    private final long xorOut;
+    private final int fill;
+    private final long lo;
+    private final long hi;
+    private final long mask;
+    /** x^0 in the reflected representation */
+    private final long one;
+    private final long[] table = new long[256];
+    /** x^(2^k) modulo the polynomial */
+    private final long[] x2n = new long[67];
+    /** CRC of the image with no word set */
+    private long fillCrc;
+
+    Crc(int width, long poly, long init, long xorOut, int fill, long lo, long hi) {
+      if (width < 8 || width > 32) {
+        throw new Error("CRC width must be 8 to 32 bits, got: " + width);
+      }
+      if (hi < lo) {
+        throw new Error("CRC address range is empty: " + lo + ".." + hi);
+      }
+      this.mask = (1L << width) - 1;
+      this.poly = poly & mask;
+      this.init = init & mask;
+      this.xorOut = xorOut & mask;
+      this.fill = fill & 0xFF;
+      this.lo = lo;
+      this.hi = hi;
+      this.one = 1L << (width - 1);
+      for (int b = 0; b < 256; b++) {
+        long c = b;
+        for (int j = 0; j < 8; j++) {
+          c = (c & 1) != 0 ? (c >>> 1) ^ this.poly : c >>> 1;
+        }
+        table[b] = c;
+      }
+      x2n[0] = one >>> 1;
+      for (int k = 1; k < x2n.length; k++) {
+        x2n[k] = multModP(x2n[k - 1], x2n[k - 1]);
+      }
+    }
+
+    @Override
+    protected void attach(int wordWidth, int partWidth) {
+      super.attach(wordWidth, partWidth);
+      long bytes = (hi - lo + 1) * getBytesPerWord();
+      // CRC with init 0 of the run of fill bytes, built from the top bit of its length down by
+      // doubling the run and appending one byte, so O(log(bytes)) instead of a step per byte
+      long run = 0;
+      long shift = one; // x^(8 * length of the run)
+      long x8 = x8nModP(1);
+      for (int b = 63 - Long.numberOfLeadingZeros(bytes); b >= 0; b--) {
+        run = multModP(shift, run) ^ run;
+        shift = multModP(shift, shift);
+        if (((bytes >>> b) & 1) != 0) {
+          run = table[(int) ((run ^ fill) & 0xFF)] ^ (run >>> 8);
+          shift = multModP(x8, shift);
+        }
+      }
+      // The init register shifted over the run, combined as in zlib's crc32_combine()
+      fillCrc = multModP(shift, init) ^ run ^ xorOut;
+    }
+
+    @Override
+    protected long contribution(long addr, long[] word) {
+      if (addr < lo || addr > hi) {
+        return 0;
+      }
+      // CRC with init 0 of the difference to the fill bytes, then the zero bytes behind it
+      int bytesPerWord = getBytesPerWord();
+      long c = 0;
+      for (int i = 0; i < bytesPerWord; i++) {
+        c = table[(int) ((c ^ wordByte(word, i) ^ fill) & 0xFF)] ^ (c >>> 8);
+      }
+      return multModP(x8nModP((hi - addr) * bytesPerWord), c);
+    }
+
+    @Override
+    protected long add(long acc, long contribution) {
+      return acc ^ contribution;
+    }
+
+    @Override
+    protected long subtract(long acc, long contribution) {
+      return acc ^ contribution;
+    }
+
+    @Override
+    protected long finish(long acc) {
+      return (fillCrc ^ acc) & mask;
+    }
+
+    /** Returns a * b modulo the polynomial, in the reflected representation */
+    private long multModP(long a, long b) {
+      long m = one;
+      long p = 0;
+      while (true) {
+        if ((a & m) != 0) {
+          p ^= b;
+          if ((a & (m - 1)) == 0) {
+            break;
+          }
+        }
+        m >>>= 1;
+        b = (b & 1) != 0 ? (b >>> 1) ^ poly : b >>> 1;
+      }
+      return p;
+    }
+
+    /** Returns x^(8 * n) modulo the polynomial, the effect of n zero bytes */
+    private long x8nModP(long n) {
+      long p = one;
+      for (int k = 3; n != 0; n >>>= 1, k++) {
+        if ((n & 1) != 0) {
+          p = multModP(x2n[k], p);
+        }
+      }
+      return p;
+    }
+  }
+}
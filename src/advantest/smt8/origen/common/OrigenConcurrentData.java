@@ -0,0 +1,657 @@
+package origen.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+import xoc.dta.datatypes.MultiSite2DLongArray;
+import xoc.dta.datatypes.MultiSiteBoolean;
+import xoc.dta.datatypes.MultiSiteLong;
+import xoc.dta.datatypes.MultiSiteLongArray;
+
+/**
+ * Thread-safe OrigenData, striped per site
+ *
+ * <p>Every active site has its own read/write lock. Writers to different sites (setDataOnSite(),
+ * setDataBulk(), ...) never wait for each other, writers to the same site are serialized, and a
+ * reader of a site sees the data of that site either before or after a write, never halfway. The
+ * address bookkeeping shared by all sites is updated under a short internal lock.
+ *
+ * <p>Calls that touch all sites (setData(), clearAllData(), getDataMSLA(addr), ...) take the locks
+ * of all sites, in ascending site order, so they see one consistent image.
+ *
+ * <p>Only the active sites at construction (or the last clearAllData()) can hold site-specific data.
+ * clearAllData() takes over the active sites of the current context; a site that stays active
+ * keeps its lock. The visitor of forEachAddress() must not write to this OrigenData.
+ *
+ * <p>Usage example, decoding captured readback in background workers after release93k():
+ *
+ * <pre>{@code
+ * OrigenConcurrentData mem = new OrigenConcurrentData(32, 32);
+ * for (int site : context.getActiveSites()) {
+ *   workers.submit(() -> mem.setDataBulk(site, addrs, decode(capture, site), 32));
+ * }
+ * }</pre>
+ */
+public class OrigenConcurrentData extends OrigenData {
+  /** Locks of the active sites, replaced by clearAllData() */
+  private volatile Stripes stripes;
+  /** Guards the address bookkeeping shared by all sites, always taken after the site locks */
+  private final ReentrantLock shared = new ReentrantLock();
+
+  /** Constructor, initialized empty address and data arrays. Data words are 4 parts of 64 bits */
+  public OrigenConcurrentData() {
+    super();
+    createLocks();
+  }
+
+  /**
+   * Constructor, initialized empty address and data arrays for data words of wordWidth bits
+   *
+   * @param wordWidth number of bits per data word, >= 1
+   * @param partWidth number of bits per part (long) of the data, 1 to 64
+   */
+  public OrigenConcurrentData(int wordWidth, int partWidth) {
+    super(wordWidth, partWidth);
+    createLocks();
+  }
+
+  // Writers of one site
+
+  @Override
+  public void setDataOnSite(int site, long addr, long[] data) {
+    ReentrantReadWriteLock.WriteLock lock = siteLock(site).writeLock();
+    lock.lock();
+    try {
+      super.setDataOnSite(site, addr, data);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void setDataOnSitesmallData(int site, long addr, long data) {
+    ReentrantReadWriteLock.WriteLock lock = siteLock(site).writeLock();
+    lock.lock();
+    try {
+      super.setDataOnSitesmallData(site, addr, data);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void setDataBulk(int site, long[] addrs, long[] data, int wordWidth) {
+    ReentrantReadWriteLock.WriteLock lock = siteLock(site).writeLock();
+    lock.lock();
+    try {
+      super.setDataBulk(site, addrs, data, wordWidth);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void ensureCapacity(int site, int n) {
+    ReentrantReadWriteLock.WriteLock lock = siteLock(site).writeLock();
+    lock.lock();
+    try {
+      super.ensureCapacity(site, n);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Readers of one site
+
+  @Override
+  public boolean addrIsSet(int site, long addr) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.addrIsSet(site, addr);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long[] getDataCommon(int site, long addr) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.getDataCommon(site, addr);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long getDataCommonsmallData(int site, long addr) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.getDataCommonsmallData(site, addr);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean readInto(int site, long addr, long[] dst) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.readInto(site, addr, dst);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long[] getDataMSLA(int site, long addr) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.getDataMSLA(site, addr);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public long getChecksum(OrigenChecksum checksum, int site) {
+    ReentrantReadWriteLock.ReadLock lock = siteLock(site).readLock();
+    lock.lock();
+    try {
+      return super.getChecksum(checksum, site);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Writers of all sites
+
+  @Override
+  public void setData(long addr, long[] data) {
+    Stripes locked = lockAll(true);
+    try {
+      super.setData(addr, data);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void setDatasmallData(long addr, long data) {
+    Stripes locked = lockAll(true);
+    try {
+      super.setDatasmallData(addr, data);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void setDataBulkAllSites(long[] addrs, long[] data, int wordWidth) {
+    Stripes locked = lockAll(true);
+    try {
+      super.setDataBulkAllSites(addrs, data, wordWidth);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void setFrom(MultiSiteLongArray addrs, MultiSite2DLongArray data) {
+    Stripes locked = lockAll(true);
+    try {
+      super.setFrom(addrs, data);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void trackChecksum(OrigenChecksum checksum) {
+    Stripes locked = lockAll(true);
+    try {
+      super.trackChecksum(checksum);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void ensureCapacity(int n) {
+    Stripes locked = lockAll(true);
+    try {
+      super.ensureCapacity(n);
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void sort() {
+    Stripes locked = lockAll(true);
+    try {
+      super.sort();
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void printData() {
+    Stripes locked = lockAll(true);
+    try {
+      super.printData();
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  @Override
+  public void clearAllData() {
+    Stripes locked = lockAll(true);
+    try {
+      super.clearAllData();
+      createLocks();
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  /** Returns a read-only snapshot, see OrigenData.snapshot(). The snapshot is a plain OrigenData */
+  @Override
+  public OrigenData snapshot() {
+    Stripes locked = lockAll(true);
+    try {
+      return super.snapshot();
+    } finally {
+      unlockAll(locked, true);
+    }
+  }
+
+  // Readers of all sites
+
+  @Override
+  public MultiSiteLongArray getMemAddr() {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getMemAddr();
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSite2DLongArray getMemData() {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getMemData();
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public ArrayList<Long> getUniqueAddressList() {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getUniqueAddressList();
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public int getUniqueAddr(int index) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getUniqueAddr(index);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public int getNumUniqueAddr() {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getNumUniqueAddr();
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public long getAddressAt(int index) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getAddressAt(index);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public int ceilingIndex(long addr) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.ceilingIndex(addr);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public long ceilingAddress(long addr) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.ceilingAddress(addr);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public void forEachAddress(long lo, long hi, LongConsumer visitor) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      super.forEachAddress(lo, hi, visitor);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public long[] getSiteGroups(long lo, long hi) {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.getSiteGroups(lo, hi);
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteLong getChecksum(OrigenChecksum checksum) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getChecksum(checksum);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteBoolean getActiveSitesOnAddr(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getActiveSitesOnAddr(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public boolean addrIsSetAnySite(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.addrIsSetAnySite(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public boolean readSmallInto(MultiSiteLong dst, long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.readSmallInto(dst, addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public boolean allSitesTheSame(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.allSitesTheSame(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public long[] getDataCommon(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataCommon(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public long getDataCommonsmallData(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataCommonsmallData(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteLongArray getDataMSLA(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataMSLA(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteLongArray getDataMSLA(long addr, String errorMsg) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataMSLA(addr, errorMsg);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteLong getDataMSLsmallData(long addr) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataMSLsmallData(addr);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public MultiSiteLong getDataMSLsmallData(long addr, String errorMsg) {
+    Stripes locked = lockAll(false);
+    try {
+      return super.getDataMSLsmallData(addr, errorMsg);
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public boolean isSorted() {
+    Stripes locked = lockAll(false);
+    try {
+      return super.isSorted();
+    } finally {
+      unlockAll(locked, false);
+    }
+  }
+
+  @Override
+  public boolean memEmpty() {
+    Stripes locked = lockAll(false);
+    shared.lock();
+    try {
+      return super.memEmpty();
+    } finally {
+      shared.unlock();
+      unlockAll(locked, false);
+    }
+  }
+
+  // Bookkeeping shared by the sites, called with a site lock held
+
+  @Override
+  void siteAddressAdded(long addr) {
+    shared.lock();
+    try {
+      super.siteAddressAdded(addr);
+    } finally {
+      shared.unlock();
+    }
+  }
+
+  @Override
+  void beginWrite() {
+    shared.lock();
+    try {
+      super.beginWrite();
+    } finally {
+      shared.unlock();
+    }
+  }
+
+  @Override
+  void partsWritten(int parts) {
+    if (parts <= wordParts()) {
+      // Only ever raised between two clearAllData(), nothing to do
+      return;
+    }
+    shared.lock();
+    try {
+      super.partsWritten(parts);
+    } finally {
+      shared.unlock();
+    }
+  }
+
+  @Override
+  void published(int words) {
+    shared.lock();
+    try {
+      super.published(words);
+    } finally {
+      shared.unlock();
+    }
+  }
+
+  // Some private helper functions
+
+  /**
+   * Creates a lock and an empty layer per active site. Sites that were active before keep their
+   * lock, so callers waiting for it still exclude each other
+   */
+  private void createLocks() {
+    int[] active = activeSites().clone();
+    Arrays.sort(active);
+    ReentrantReadWriteLock[] old = stripes == null ? null : stripes.locks;
+    ReentrantReadWriteLock[] locks =
+        new ReentrantReadWriteLock[active.length == 0 ? 0 : active[active.length - 1] + 1];
+    for (int site : active) {
+      boolean keep = old != null && site < old.length && old[site] != null;
+      locks[site] = keep ? old[site] : new ReentrantReadWriteLock();
+    }
+    stripes = new Stripes(active, locks);
+    createLayers();
+  }
+
+  /**
+   * Creates the layers of all active sites upfront, so the layer directory never changes while
+   * writers of different sites run
+   */
+  private void createLayers() {
+    for (int site : stripes.sites) {
+      super.ensureCapacity(site, 0);
+    }
+  }
+
+  private ReentrantReadWriteLock siteLock(int site) {
+    ReentrantReadWriteLock[] locks = stripes.locks;
+    if (site < 0 || site >= locks.length || locks[site] == null) {
+      throw new Error(
+          "OrigenConcurrentData only holds data for the active sites, got site: " + site);
+    }
+    return locks[site];
+  }
+
+  /**
+   * Takes the lock of every site, in ascending site order
+   *
+   * @return the locks taken, to be passed to unlockAll()
+   */
+  private Stripes lockAll(boolean write) {
+    Stripes locked = stripes;
+    for (int site : locked.sites) {
+      if (write) {
+        locked.locks[site].writeLock().lock();
+      } else {
+        locked.locks[site].readLock().lock();
+      }
+    }
+    return locked;
+  }
+
+  /** Releases the locks taken by lockAll(), in descending site order */
+  private static void unlockAll(Stripes locked, boolean write) {
+    for (int i = locked.sites.length - 1; i >= 0; i--) {
+      if (write) {
+        locked.locks[locked.sites[i]].writeLock().unlock();
+      } else {
+        locked.locks[locked.sites[i]].readLock().unlock();
+      }
+    }
+  }
+
+  /** Active sites and their locks, replaced as a whole so all-site calls unlock what they locked */
+  private static class Stripes {
+    /** Active sites in ascending order, the order in which all locks are taken */
+    final int[] sites;
+    /** Lock per site, indexed by site number, null for sites that are not active */
+    final ReentrantReadWriteLock[] locks;
+
+    Stripes(int[] sites, ReentrantReadWriteLock[] locks) {
+      this.sites = sites;
+      this.locks = locks;
+    }
+  }
+}
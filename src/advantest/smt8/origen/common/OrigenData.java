@@ -1,9 +1,8 @@
 package origen.common;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
 import xoc.dta.datatypes.MultiSite2DLongArray;
 import xoc.dta.datatypes.MultiSiteBoolean;
 import xoc.dta.datatypes.MultiSiteLong;
@@ -16,10 +15,35 @@ import xoc.dta.resultaccess.datatypes.BitSequence.BitOrder;
  * <p>Can be used for example to store data before patching. Data elements are of type long. The
  * implementation class is responsible for mapping this data to the right format
  *
- * <p>Use: It's basically a key-value pair per data point. This format is efficient for large arrays
- * with little set data. It's not so efficient for a small array with many datapoints set. The key
- * is the address and the value is called data. Everything is stored in a multisitelongarray for
- * efficient patching.
+ * <p>Use: It's basically a key-value pair per data point. The key is the address and the value is
+ * called data. Sparse parts of the address space are stored as key/value pairs with a hash index
+ * from address to location, which is efficient for large arrays with little set data. Parts of the
+ * address space where many datapoints are set are switched automatically to dense pages, which
+ * hold the data indexed by address without storing the address itself. Either way, looking up or
+ * adding an address does not depend on the number of addresses already set.
+ *
+ * <p>Data written for all sites (setData) is stored once in a common layer. Data written for a
+ * single site (setDataOnSite) is stored in a per-site layer that overrides the common layer for
+ * that address. So a common write does not depend on the number of sites, and memory scales with
+ * the number of site-specific words. allSitesTheSame() is answered without looking at the sites
+ * when no site overrides the address.
+ *
+ * <p>The width of a data word is set at construction, e.g. new OrigenData(136, 34) for C28ESF3
+ * (136-bit words passed as 4 parts of 34 bits) or new OrigenData(32, 32) for C402T. The words are
+ * stored packed, so a 32-bit word takes 4 bytes and a 136-bit word 17 bytes. The default
+ * constructor keeps the original layout of up to 4 parts of 64 bits per word, and returns the data
+ * with as many parts as the widest data written since the last clearAllData(). So data written
+ * with the smallData functions comes back as long[] {data}.
+ *
+ * <p>The layer arrays grow geometrically. The multisitelongarray views (getMemAddr() and
+ * getMemData()) are only built when they are asked for. When the number of addresses is known
+ * upfront, use OrigenData(int) or ensureCapacity() to avoid growing altogether. Large images can be
+ * kept outside the garbage collected heap with OrigenOffHeapData.
+ *
+ * <p>snapshot() returns a read-only view of the current data without copying it, see there.
+ *
+ * <p>Checksums over the data (CRC-16, CRC-32, sums) are kept up to date on every write with
+ * trackChecksum(), so getChecksum() does not walk the data, see OrigenChecksum.
  *
  * <p>Usage example:
  *
@@ -47,93 +71,387 @@ import xoc.dta.resultaccess.datatypes.BitSequence.BitOrder;
  * }</pre>
  */
 public class OrigenData {
-  private MultiSiteLongArray mem_addr;
-  private MultiSite2DLongArray mem_data;
+  /** Views on the set addresses and data, null until asked for or after a change */
+  private volatile MultiSiteLongArray mem_addr;
+  private volatile MultiSite2DLongArray mem_data;
+
+  /** Address and data storage shared by all sites */
+  private OrigenDataLayer _common;
+
+  /** Per-site address and data storage overriding _common, indexed by site number */
+  private OrigenDataLayer[] _layers;
+
+  /** Number of sites overriding an address, only holds the addresses that have an override */
+  private OrigenAddressIndex _overrides;
+
+  private final OrigenWordFormat _format;
+  /** Source of off-heap dense pages, null when everything is stored on the heap */
+  private final OrigenPagePool _pool;
+  private int[] _activeSites;
+  /** True for the active sites, indexed by site number */
+  private boolean[] _isActive;
+  private int _initialCapacity;
+
+  /** Unique addresses of all sites, kept up to date on every write */
+  private OrigenAddressSet _uniqueAddr;
+
+  /** Data returned for unset sites: all parts UNSET. Shared by all results, never modified */
+  private final long[] _unset;
+
+  /** Scratch words per thread, so reading does not allocate and readers do not share them */
+  private final ThreadLocal<long[][]> _scratch;
+
+  /** Value of every part of the data returned for an address that has not been set */
+  public static final long UNSET = -1;
+
+  /** True for a snapshot, all writes throw an error */
+  private boolean _readOnly;
+
+  /** True while _overrides and _uniqueAddr are shared with a snapshot, copied on the next write */
+  private boolean _shared;
+
+  /** Releases the layers of a snapshot, null for an OrigenData that is not a snapshot */
+  private SnapshotRelease _release;
+
+  /** Checksums kept up to date on every write, see trackChecksum() */
+  private ChecksumState[] _checksums = new ChecksumState[0];
+
+  /** Number of parts of the returned data, see wordParts() */
+  private int _parts;
+  /** Value of _parts after clearAllData(): 1 for the default layout, all parts otherwise */
+  private int _baseParts;
 
-  private ArrayList<Long> _sortedUniqueElements;
   // For printing purposes only
-  public int bitPerDataElement = 34;
+  public int bitPerDataElement;
 
   private boolean _anythingSet = false;
-  /** Constructor, initialized empty address and data arrays */
+  /** Constructor, initialized empty address and data arrays. Data words are 4 parts of 64 bits */
   public OrigenData() {
-    mem_addr = new MultiSiteLongArray();
-    mem_data = new MultiSite2DLongArray();
-    _anythingSet = false;
+    this(0);
   }
 
-  public ArrayList<Long> getUniqueAddressList() {
-    ArrayList<Long> list = new ArrayList<Long>();
-    for (int site : mem_data.getActiveSites()) {
-      long[] a = mem_addr.get(site);
-      for (int i = 0; i < a.length; i++) {
-        if (!list.contains(a[i])) {
-          list.add(a[i]);
-        }
+  /**
+   * Constructor, initialized empty address and data arrays. Data words are 4 parts of 64 bits. The
+   * common layer can hold the given number of addresses without growing
+   *
+   * @param initialCapacity
+   */
+  public OrigenData(int initialCapacity) {
+    this(4 * 64, 64, initialCapacity);
+    // The data is returned with as many parts as it was written with
+    _baseParts = 1;
+    _parts = 1;
+  }
+
+  /**
+   * Constructor, initialized empty address and data arrays for data words of wordWidth bits. The
+   * data of a word is passed as parts of partWidth bits, least significant part first
+   *
+   * @param wordWidth number of bits per data word, >= 1
+   * @param partWidth number of bits per part (long) of the data, 1 to 64
+   */
+  public OrigenData(int wordWidth, int partWidth) {
+    this(wordWidth, partWidth, 0);
+  }
+
+  /**
+   * Constructor, initialized empty address and data arrays for data words of wordWidth bits. The
+   * common layer can hold the given number of addresses without growing
+   *
+   * @param wordWidth number of bits per data word, >= 1
+   * @param partWidth number of bits per part (long) of the data, 1 to 64
+   * @param initialCapacity
+   */
+  public OrigenData(int wordWidth, int partWidth, int initialCapacity) {
+    this(wordWidth, partWidth, initialCapacity, false);
+  }
+
+  /**
+   * Constructor, see OrigenOffHeapData for offHeap
+   *
+   * @param wordWidth number of bits per data word, >= 1
+   * @param partWidth number of bits per part (long) of the data, 1 to 64
+   * @param initialCapacity
+   * @param offHeap true to store the dense pages in direct memory
+   */
+  OrigenData(int wordWidth, int partWidth, int initialCapacity, boolean offHeap) {
+    _format = new OrigenWordFormat(wordWidth, partWidth);
+    _pool = offHeap ? new OrigenPagePool(_format) : null;
+    _unset = new long[_format.numLimbs];
+    Arrays.fill(_unset, UNSET);
+    _scratch = scratchWords(_format);
+    _initialCapacity = initialCapacity;
+    _baseParts = _format.numLimbs;
+    bitPerDataElement = _format.limbWidth;
+    reset();
+  }
+
+  /**
+   * Constructor of a read-only snapshot, sharing the storage of src
+   *
+   * @param src
+   */
+  private OrigenData(OrigenData src) {
+    _format = src._format;
+    _pool = src._pool;
+    _unset = src._unset;
+    _scratch = scratchWords(_format);
+    _initialCapacity = src._initialCapacity;
+    _parts = src._parts;
+    _baseParts = src._baseParts;
+    bitPerDataElement = src.bitPerDataElement;
+    _activeSites = src._activeSites;
+    _isActive = src._isActive;
+    _common = src._common;
+    _layers = src._layers.clone();
+    _overrides = src._overrides;
+    _uniqueAddr = src._uniqueAddr;
+    mem_addr = src.mem_addr;
+    mem_data = src.mem_data;
+    _anythingSet = src._anythingSet;
+    _checksums = new ChecksumState[src._checksums.length];
+    for (int i = 0; i < _checksums.length; i++) {
+      _checksums[i] = src._checksums[i].copy();
+    }
+    _readOnly = true;
+  }
+
+  /**
+   * Returns a read-only view of the current data. Later writes to this OrigenData are not seen by
+   * the snapshot, and writing to the snapshot throws an error.
+   *
+   * <p>Taking a snapshot copies nothing. The storage is shared until this OrigenData writes to it:
+   * the first write to a layer (common or site) copies its sparse arrays, the first write to a dense
+   * page copies that page. So a background thread can verify against the snapshot while the
+   * foreground prepares the next image in this OrigenData. Reading does not modify an OrigenData,
+   * so any number of threads can read the same snapshot.
+   *
+   * <p>Call release() on the snapshot when it is not needed anymore, so the next write does not copy
+   * the storage it shares. Off-heap pages of a snapshot that is not released go back to the pool
+   * once the snapshot has been garbage collected.
+   *
+   * @return
+   */
+  public OrigenData snapshot() {
+    if (_readOnly) {
+      return this;
+    }
+    OrigenDataLayer[] layers = new OrigenDataLayer[_layers.length + 1];
+    layers[0] = _common;
+    System.arraycopy(_layers, 0, layers, 1, _layers.length);
+    for (OrigenDataLayer layer : layers) {
+      if (layer != null) {
+        layer.retain();
       }
     }
-    Collections.sort(list);
-    Collections.reverse(list);
+    _shared = true;
+    OrigenData snap = new OrigenData(this);
+    snap._release = new SnapshotRelease(layers);
+    if (_pool != null) {
+      _pool.track(snap, snap._release);
+    }
+    return snap;
+  }
+
+  /**
+   * Releases a snapshot: the storage it shares with the OrigenData it was taken from is handed back,
+   * so that one writes to it without copying and off-heap pages return to the pool. The snapshot
+   * must not be used afterwards. Releasing a snapshot twice does nothing
+   */
+  public void release() {
+    if (!_readOnly) {
+      throw new Error("Only a snapshot can be released, use clearAllData() to drop the data");
+    }
+    _release.run();
+  }
+
+  /** Returns true if this is a snapshot, which cannot be written */
+  public boolean isReadOnly() {
+    return _readOnly;
+  }
+
+  /** Returns the number of bits per data word */
+  public int getWordWidth() {
+    return _format.wordWidth;
+  }
+
+  /** Returns the number of parts (longs) the data of one word is split in */
+  public int getNumParts() {
+    return _format.numLimbs;
+  }
+
+  /** Returns the number of bits per part (long) of the data */
+  public int getPartWidth() {
+    return _format.limbWidth;
+  }
+
+  /**
+   * Makes sure the common layer can hold at least n addresses without growing its arrays
+   *
+   * @param n
+   */
+  public void ensureCapacity(int n) {
+    beginWrite();
+    common().ensureCapacity(n);
+  }
+
+  /**
+   * Makes sure a site can hold at least n site-specific addresses without growing its arrays
+   *
+   * @param site
+   * @param n
+   */
+  public void ensureCapacity(int site, int n) {
+    beginWrite();
+    layerOf(site).ensureCapacity(n);
+  }
+
+  /**
+   * Returns the set addresses of all sites, in ascending order per site. Built on first call after a
+   * change
+   */
+  public MultiSiteLongArray getMemAddr() {
+    MultiSiteLongArray view = mem_addr;
+    if (view == null) {
+      buildViews();
+      view = mem_addr;
+    }
+    return view;
+  }
+
+  /** Returns the set data of all sites, in the same order as getMemAddr() */
+  public MultiSite2DLongArray getMemData() {
+    MultiSite2DLongArray view = mem_data;
+    if (view == null) {
+      buildViews();
+      view = mem_data;
+    }
+    return view;
+  }
+
+  /**
+   * Returns the addresses that are set on any site, highest address first
+   *
+   * <p>This builds a new boxed list on every call, loops over the image should use
+   * getNumUniqueAddr()/getAddressAt() or forEachAddress() instead
+   *
+   * @return
+   */
+  public ArrayList<Long> getUniqueAddressList() {
+    int n = _uniqueAddr.size();
+    ArrayList<Long> list = new ArrayList<Long>(n);
+    for (int i = n - 1; i >= 0; i--) {
+      list.add(_uniqueAddr.get(i));
+    }
     return list;
   }
 
   public MultiSiteBoolean getActiveSitesOnAddr(long addr) {
     MultiSiteBoolean MSB = new MultiSiteBoolean();
-    for (int site : mem_data.getActiveSites()) {
+    for (int site : _activeSites) {
       MSB.set(site, addrIsSet(site, addr));
     }
     return MSB;
   }
 
+  /**
+   * Returns the unique address at a position, highest address first (same order as
+   * getUniqueAddressList())
+   *
+   * @param index
+   * @return
+   */
   public int getUniqueAddr(int index) {
-    _sortedUniqueElements = getUniqueAddressList();
-    return _sortedUniqueElements.get(index).intValue();
+    return (int) _uniqueAddr.get(_uniqueAddr.size() - 1 - index);
   }
 
+  /** Returns the number of addresses that are set on any site */
   public int getNumUniqueAddr() {
-    _sortedUniqueElements = getUniqueAddressList();
-    return _sortedUniqueElements.size();
+    return _uniqueAddr.size();
   }
 
-  public static <T extends Comparable<T>> List<Integer> sortIndex(final List<T> in) {
-    ArrayList<Integer> index = new ArrayList<>();
-    for (int i = 0; i < in.size(); i++) {
-      index.add(i);
-    }
+  /**
+   * Returns the unique address at a position, lowest address first
+   *
+   * @param index 0..getNumUniqueAddr()-1
+   * @return
+   */
+  public long getAddressAt(int index) {
+    return _uniqueAddr.get(index);
+  }
 
-    Collections.sort(
-        index,
-        new Comparator<Integer>() {
-          @Override
-          public int compare(Integer idx1, Integer idx2) {
-            return in.get(idx1).compareTo(in.get(idx2));
-          }
-        });
+  /**
+   * Returns the position (as used by getAddressAt()) of the lowest unique address >= addr, or
+   * getNumUniqueAddr() if there is none
+   *
+   * @param addr
+   * @return
+   */
+  public int ceilingIndex(long addr) {
+    return _uniqueAddr.ceilingIndex(addr);
+  }
 
-    return index;
+  /**
+   * Returns the lowest address >= addr that is set on any site, or -1 if there is none
+   *
+   * @param addr
+   * @return
+   */
+  public long ceilingAddress(long addr) {
+    int i = _uniqueAddr.ceilingIndex(addr);
+    return i < _uniqueAddr.size() ? _uniqueAddr.get(i) : -1;
   }
 
-  public void sort() {
-    for (int site : mem_data.getActiveSites()) {
-      long[] a = mem_addr.get(site);
-      long[][] d = mem_data.get(site);
+  /**
+   * Calls the visitor for every address in lo..hi (both inclusive) that is set on any site, lowest
+   * address first. Nothing is allocated, so this is the preferred way to loop over (a range of) the
+   * image:
+   *
+   * <pre>{@code
+   * mem.forEachAddress(0x100, 0x1FF, addr -> patch(addr, mem.getDataMSLA(addr)));
+   * }</pre>
+   *
+   * @param lo
+   * @param hi
+   * @param visitor
+   */
+  public void forEachAddress(long lo, long hi, LongConsumer visitor) {
+    _uniqueAddr.forEach(lo, hi, visitor);
+  }
 
-      List<Long> list = new ArrayList<Long>(a.length);
-      for (long n : a) {
-        list.add(n);
+  /**
+   * Sorts the stored data of every layer by address, so walking the image in address order reads
+   * the storage sequentially. Layers that are still sorted from a previous call are skipped, so
+   * sorting an unchanged image costs nothing. getMemAddr() lists the addresses of every site in
+   * ascending order whether or not the data is sorted
+   */
+  public void sort() {
+    if (isSorted()) {
+      return;
+    }
+    beginWrite();
+    if (!_common.isSorted()) {
+      common().sort();
+    }
+    for (int site = 0; site < _layers.length; site++) {
+      if (_layers[site] != null && !_layers[site].isSorted()) {
+        layerOf(site).sort();
       }
+    }
+    invalidateViews();
+  }
 
-      List<Integer> idx = sortIndex(list);
-
-      long[] newA = a.clone();
-      long[][] newD = d.clone();
-      for (int i = 0; i < a.length; i++) {
-        newA[i] = a[idx.get(i)];
-        newD[i] = d[idx.get(i)];
+  /** Returns true if the stored data is sorted by address, i.e. sort() has nothing to do */
+  public boolean isSorted() {
+    if (!_common.isSorted()) {
+      return false;
+    }
+    for (OrigenDataLayer layer : _layers) {
+      if (layer != null && !layer.isSorted()) {
+        return false;
       }
-      mem_addr.set(site, newA);
-      mem_data.set(site, newD);
     }
+    return true;
   }
 
   public boolean memEmpty() {
@@ -150,24 +468,7 @@ public class OrigenData {
    * @param data
    */
   public void setDataOnSite(int site, long addr, long[] data) {
-    long[] a = mem_addr.get(site);
-    long[][] d = mem_data.get(site);
-    if (a == null) {
-      a = new long[0];
-    }
-    if (d == null) {
-      d = new long[0][0];
-    }
-    int loc = valInAddr(a, addr);
-    if (loc == d.length) {
-      d = expand(d);
-      a = expand(a);
-    }
-    d[loc] = data;
-    a[loc] = addr;
-    mem_data.set(site, d);
-    mem_addr.set(site, a);
-    _anythingSet = true;
+    putOnSite(site, addr, data);
   }
   
   /**
@@ -180,26 +481,8 @@ public class OrigenData {
    * @param data
    */
   public void setDataOnSitesmallData(int site, long addr, long data) {
-    long[] a = mem_addr.get(site);
-    long[][] d = mem_data.get(site);
-    if (a == null) {
-      a = new long[0];
-    }
-    if (d == null) {
-      d = new long[0][0];
-    }
-    int loc = valInAddr(a, addr);
-    if (loc == d.length) {
-      d = expand(d);
-      a = expand(a);
-    }
-
     long[] data0 = new long[] {data};
-    d[loc] = data0;
-    a[loc] = addr;
-    mem_data.set(site, d);
-    mem_addr.set(site, a);
-    _anythingSet = true;
+    putOnSite(site, addr, data0);
   }
 
   /**
@@ -210,9 +493,7 @@ public class OrigenData {
    * @param data
    */
   public void setData(long addr, long[] data) {
-    for (int site : mem_data.getActiveSites()) {
-      setDataOnSite(site, addr, data);
-    }
+    putCommon(addr, data);
   }
 
   /**
@@ -223,9 +504,105 @@ public class OrigenData {
    * @param data
    */
   public void setDatasmallData(long addr, long data) {
-    for (int site : mem_data.getActiveSites()) {
-      setDataOnSitesmallData(site, addr, data);
+    long[] data0 = new long[] {data};
+    putCommon(addr, data0);
+  }
+
+  /**
+   * Set the data of a block of addresses on 1 specific site
+   * The data is a flat array holding the parts of each word back to back, so the number of parts
+   * per word is wordWidth / partWidth rounded up (see getNumParts() for a full word). wordWidth
+   * can be smaller than the word width of this OrigenData, the missing parts are stored as 0.
+   * The storage is sized for the whole block upfront and the views are only invalidated once
+   *
+   * @param site
+   * @param addrs
+   * @param data parts of word i are at i * partsPerWord .. (i + 1) * partsPerWord - 1
+   * @param wordWidth number of bits per word in data
+   */
+  public void setDataBulk(int site, long[] addrs, long[] data, int wordWidth) {
+    int parts = bulkParts(addrs, data, wordWidth);
+    beginWrite();
+    partsWritten(parts);
+    OrigenDataLayer layer = layerOf(site);
+    layer.prepareBulk(addrs);
+    long[] word = new long[parts];
+    for (int i = 0; i < addrs.length; i++) {
+      System.arraycopy(data, i * parts, word, 0, parts);
+      storeOnSite(site, layer, addrs[i], word);
     }
+    published(addrs.length);
+  }
+
+  /**
+   * Set the data of a block of addresses for all sites, see setDataBulk() for the data layout
+   *
+   * @param addrs
+   * @param data parts of word i are at i * partsPerWord .. (i + 1) * partsPerWord - 1
+   * @param wordWidth number of bits per word in data
+   */
+  public void setDataBulkAllSites(long[] addrs, long[] data, int wordWidth) {
+    int parts = bulkParts(addrs, data, wordWidth);
+    beginWrite();
+    partsWritten(parts);
+    common().prepareBulk(addrs);
+    long[] word = new long[parts];
+    for (int i = 0; i < addrs.length; i++) {
+      System.arraycopy(data, i * parts, word, 0, parts);
+      storeCommon(addrs[i], word);
+    }
+    published(addrs.length);
+  }
+
+  /**
+   * Set the data of all sites from multisite arrays, e.g. as returned by getMemAddr() and
+   * getMemData() of another OrigenData. Existing data is overwritten per address, call
+   * clearAllData() first to load a fresh image. When all sites hold the same addresses and data,
+   * the data is stored once for all sites
+   *
+   * @param addrs
+   * @param data data[i] is the data of addrs[i] for each site
+   */
+  public void setFrom(MultiSiteLongArray addrs, MultiSite2DLongArray data) {
+    beginWrite();
+    boolean same = true;
+    int loaded = 0;
+    for (int site : _activeSites) {
+      long[] a = addrs.get(site);
+      long[][] d = data.get(site);
+      if (a.length != d.length) {
+        throw new Error(
+            "Site " + site + " has " + a.length + " addresses but data for " + d.length);
+      }
+      for (long[] word : d) {
+        partsWritten(word.length);
+      }
+      if (site != _activeSites[0]) {
+        same &= Arrays.equals(a, addrs.get(_activeSites[0]));
+        same &= Arrays.deepEquals(d, data.get(_activeSites[0]));
+      }
+    }
+    if (same && _activeSites.length > 0) {
+      long[] a = addrs.get(_activeSites[0]);
+      long[][] d = data.get(_activeSites[0]);
+      common().prepareBulk(a);
+      for (int i = 0; i < a.length; i++) {
+        storeCommon(a[i], d[i]);
+      }
+      loaded = a.length;
+    } else {
+      for (int site : _activeSites) {
+        long[] a = addrs.get(site);
+        long[][] d = data.get(site);
+        OrigenDataLayer layer = layerOf(site);
+        layer.prepareBulk(a);
+        for (int i = 0; i < a.length; i++) {
+          storeOnSite(site, layer, a[i], d[i]);
+        }
+        loaded += a.length;
+      }
+    }
+    published(loaded);
   }
 
   /**
@@ -235,7 +612,7 @@ public class OrigenData {
    * @return
    */
   public boolean addrIsSetAnySite(long addr) {
-    for (int site : mem_data.getActiveSites()) {
+    for (int site : _activeSites) {
       if (addrIsSet(site, addr)) {
         return true;
       }
@@ -251,9 +628,11 @@ public class OrigenData {
    * @return
    */
   public boolean addrIsSet(int site, long addr) {
-    long[] a = mem_addr.get(site);
-    int loc = valInAddr(a, addr);
-    return loc != a.length;
+    if (!isActive(site)) {
+      return false;
+    }
+    OrigenDataLayer layer = findLayer(site);
+    return (layer != null && layer.contains(addr)) || _common.contains(addr);
   }
 
   /**
@@ -265,7 +644,7 @@ public class OrigenData {
    * @return
    */
   public long[] getDataCommon(long addr) {
-    int sites[] = mem_data.getActiveSites();
+    int sites[] = _activeSites;
     if (allSitesTheSame(addr)) {
       return getDataPerSite(sites[0], addr);
     }
@@ -282,9 +661,9 @@ public class OrigenData {
    * @return
    */
   public long getDataCommonsmallData(long addr) {
-    int sites[] = mem_data.getActiveSites();
+    int sites[] = _activeSites;
     if (allSitesTheSame(addr)) {
-      return getDataPerSite(sites[0], addr)[0];
+      return smallDataPerSite(sites[0], addr);
     }
     throw new Error(
         "Not all sites have the same data, cannot give common data for this addr: " + addr);
@@ -310,13 +689,53 @@ public class OrigenData {
    * @return
    */
   public long getDataCommonsmallData(int site, long addr) {
-    return getDataPerSite(site, addr)[0];
+    return smallDataPerSite(site, addr);
 
 }
 
+  /**
+   * Fills dst with the data of an address on a site, without allocating. Use this instead of the
+   * getData functions in loops over many addresses
+   *
+   * @param site
+   * @param addr
+   * @param dst must hold at least getNumParts() elements
+   * @return false if the address is not set on this site, all parts of dst are UNSET then
+   */
+  public boolean readInto(int site, long addr, long[] dst) {
+    if (readSite(site, addr, dst)) {
+      return true;
+    }
+    System.arraycopy(_unset, 0, dst, 0, _unset.length);
+    return false;
+  }
+
+  /**
+   * Fills dst with the data of an address on every active site, without allocating. Sites on which
+   * the address is not set get UNSET
+   * Used for data size <= 64bits (like C402T, 32 bits)
+   *
+   * @param dst
+   * @param addr
+   * @return true if the address is set on all active sites
+   */
+  public boolean readSmallInto(MultiSiteLong dst, long addr) {
+    long[] d = scratch(0);
+    boolean allSet = true;
+    for (int site : _activeSites) {
+      if (readSite(site, addr, d)) {
+        dst.set(site, d[0]);
+      } else {
+        dst.set(site, UNSET);
+        allSet = false;
+      }
+    }
+    return allSet;
+  }
+
   /**
    * Returns the site specific data[] for an address, returning -1 for the data if it has not been
-   * previously set
+   * previously set. The -1 data of unset sites is one shared array that must not be modified
    * Used for data size > 64bits (like C28ESF3, 136 bits)
    *
    * @param addr
@@ -386,14 +805,14 @@ public class OrigenData {
    */
   private MultiSiteLongArray getDataMSLA(long addr, boolean errorOnNotSet, String errorMsg) {
       MultiSiteLongArray result = new MultiSiteLongArray();
-      for (int site : mem_data.getActiveSites()) {
+      for (int site : _activeSites) {
         if (addrIsSet(site, addr)) {
           result.set(site, getDataPerSite(site, addr));
         } else {
           if (errorOnNotSet) {
             throw new Error(errorMsg);
           }
-          result.set(site, new long[] {-1,-1,-1,-1}); // 4 parts (each parts corresponds to 34bits)
+          result.set(site, _unset);
         }
       }
       return result;
@@ -410,18 +829,11 @@ public class OrigenData {
    * 
    */
   private MultiSiteLong getDataMSLsmallData(long addr, boolean errorOnNotSet, String errorMsg) {
-      MultiSiteLongArray result = new MultiSiteLongArray();
-      for (int site : mem_data.getActiveSites()) {
-        if (addrIsSet(site, addr)) {
-          result.set(site, getDataPerSite(site, addr));
-        } else {
-          if (errorOnNotSet) {
-            throw new Error(errorMsg);
-          }
-          result.set(site, new long[] {-1,-1,-1,-1}); // 4 parts (each parts corresponds to 34bits)
-        }
+      MultiSiteLong result = new MultiSiteLong();
+      if (!readSmallInto(result, addr) && errorOnNotSet) {
+        throw new Error(errorMsg);
       }
-      return result.getElement(0);
+      return result;
     }
 
   /**
@@ -459,15 +871,14 @@ public class OrigenData {
    * 
    */
   private long getDataMSLsmallData(int site, long addr, boolean errorOnNotSet, String errorMsg) {
-      long[] result = null;
-        if (addrIsSet(site, addr)) {
-          result = getDataPerSite(site, addr);
-        } else {
-          if (errorOnNotSet) {
-            throw new Error("No Address set for site: " + site + "@addr: 0X" + Long.toHexString(addr));
-          }
+      long[] d = scratch(0);
+      if (!readSite(site, addr, d)) {
+        if (errorOnNotSet) {
+          throw new Error(errorMsg);
         }
-      return result[0];
+        return UNSET;
+      }
+      return d[0];
     }
 
   /**
@@ -477,29 +888,24 @@ public class OrigenData {
    * @return
    */
   public boolean allSitesTheSame(long addr) {
-    long[] commonData = new long[]{-1,-1,-1,-1};
+    if (!_overrides.contains(addr)) {
+      // Only the common layer can hold this address, so it is the same on all sites
+      return true;
+    }
+    long[] commonData = scratch(0);
+    long[] d = scratch(1);
     boolean addrFound = false, addrNotFound = false;
-    for (int site : mem_data.getActiveSites()) {
-      long[][] d = mem_data.get(site);
-      long[] a = mem_addr.get(site);
-      int loc = valInAddr(a, addr);
-      if (loc != a.length) {
+    for (int site : _activeSites) {
+      if (readSite(site, addr, addrFound ? d : commonData)) {
         if (addrNotFound) {
           return false;
         }
-        // Addr is found
-        addrFound = true;
-
-        for(int i = 0 ; i < 4 ; i++) {
-            if (commonData[i] == -1) {
-                commonData[i] = d[loc][i];
-            }
-            else {
-                if(commonData[i] != d[loc][i]) {
-                     // Not all data the same for this addr over all sits
-                    return false;
-                }
-            }
+        if (!addrFound) {
+          // Addr is found, the first site holds the data to compare with
+          addrFound = true;
+        } else if (!Arrays.equals(commonData, d)) {
+          // Not all data the same for this addr over all sites
+          return false;
         }
       } else {
         addrNotFound = true;
@@ -512,67 +918,607 @@ public class OrigenData {
     return true;
   }
 
+  /**
+   * Returns the groups of active sites that have identical data for this address. Each group is a
+   * site bitmask with bit (site - 1) set for every site in the group, so sites 1..64 are supported.
+   * The active sites on which the address is not set form a group as well. The groups are ordered
+   * by their lowest site.
+   *
+   * <p>Patching code can write one image per group instead of one per site, e.g.:
+   *
+   * <pre>{@code
+   * for (long group : mem.getSiteGroups(addr)) {
+   *   int[] sites = OrigenData.sitesOf(group);
+   *   patch(sites, mem.getDataMSLA(sites[0], addr));
+   * }
+   * }</pre>
+   *
+   * @param addr
+   * @return
+   */
+  public long[] getSiteGroups(long addr) {
+    return getSiteGroups(addr, addr);
+  }
+
+  /**
+   * Returns the groups of active sites that have identical data for every address in lo..hi (both
+   * inclusive), see getSiteGroups(long). Only addresses that are overridden per site are looked
+   * at, so this is cheap for ranges holding mainly common data
+   *
+   * @param lo
+   * @param hi
+   * @return
+   */
+  public long[] getSiteGroups(long lo, long hi) {
+    long all = 0;
+    for (int site : _activeSites) {
+      all |= siteBit(site);
+    }
+    long[] groups = new long[Long.bitCount(all)];
+    int numGroups = 0;
+    if (all != 0) {
+      groups[numGroups++] = all;
+    }
+    if (_overrides.size() == 0) {
+      return Arrays.copyOf(groups, numGroups);
+    }
+    long[] rep = new long[_format.numLimbs];
+    long[] other = new long[_format.numLimbs];
+    int n = _uniqueAddr.size();
+    for (int i = _uniqueAddr.ceilingIndex(lo); i < n && numGroups < groups.length; i++) {
+      long addr = _uniqueAddr.get(i);
+      if (addr > hi) {
+        break;
+      }
+      if (!_overrides.contains(addr)) {
+        continue;
+      }
+      // Split every group in the sites that have the same data as their lowest site and the rest
+      int end = numGroups;
+      for (int g = 0; g < end; g++) {
+        long rest = groups[g];
+        if (Long.bitCount(rest) == 1) {
+          continue;
+        }
+        boolean first = true;
+        while (rest != 0) {
+          int site = Long.numberOfTrailingZeros(rest) + 1;
+          boolean repSet = readSite(site, addr, rep);
+          long same = siteBit(site);
+          for (long t = rest & ~same; t != 0; t &= t - 1) {
+            int s = Long.numberOfTrailingZeros(t) + 1;
+            if (readSite(s, addr, other) == repSet && (!repSet || Arrays.equals(rep, other))) {
+              same |= siteBit(s);
+            }
+          }
+          rest &= ~same;
+          if (first) {
+            groups[g] = same;
+            first = false;
+          } else {
+            groups[numGroups++] = same;
+          }
+        }
+      }
+    }
+    groups = Arrays.copyOf(groups, numGroups);
+    // Disjoint masks, so ordering by the lowest bit orders by the lowest site
+    for (int i = 1; i < numGroups; i++) {
+      long g = groups[i];
+      int j = i - 1;
+      for (; j >= 0 && Long.numberOfTrailingZeros(groups[j]) > Long.numberOfTrailingZeros(g); j--) {
+        groups[j + 1] = groups[j];
+      }
+      groups[j + 1] = g;
+    }
+    return groups;
+  }
+
+  /**
+   * Returns the sites of a site bitmask as returned by getSiteGroups(), lowest site first
+   *
+   * @param mask bit (site - 1) set for every site
+   * @return
+   */
+  public static int[] sitesOf(long mask) {
+    int[] sites = new int[Long.bitCount(mask)];
+    int n = 0;
+    for (long m = mask; m != 0; m &= m - 1) {
+      sites[n++] = Long.numberOfTrailingZeros(m) + 1;
+    }
+    return sites;
+  }
+
+  /**
+   * Starts keeping a checksum up to date on every write. The checksum of the data already set is
+   * computed once here, after that each write only updates it with the old and the new word
+   *
+   * @param checksum e.g. OrigenChecksum.crc16(0, 0x3FFF), attached to this OrigenData only
+   */
+  public void trackChecksum(OrigenChecksum checksum) {
+    for (ChecksumState cs : _checksums) {
+      if (cs.checksum == checksum) {
+        return;
+      }
+    }
+    checksum.attach(_format.wordWidth, _format.limbWidth);
+    ChecksumState cs = new ChecksumState(checksum, siteSlots());
+    long[] word = scratch(0);
+    long[] base = scratch(1);
+    for (long a : _common.addresses()) {
+      _common.get(a, word);
+      cs.common = cs.replace(cs.common, a, null, word);
+    }
+    for (int site = 0; site < _layers.length; site++) {
+      if (_layers[site] != null) {
+        for (long a : _layers[site].addresses()) {
+          _layers[site].get(a, word);
+          cs.setSite(site, cs.replace(cs.site(site), a, _common.get(a, base) ? base : null, word));
+        }
+      }
+    }
+    _checksums = Arrays.copyOf(_checksums, _checksums.length + 1);
+    _checksums[_checksums.length - 1] = cs;
+  }
+
+  /**
+   * Returns the current value of a tracked checksum for one site, in O(1)
+   *
+   * @param checksum
+   * @param site
+   * @return
+   */
+  public long getChecksum(OrigenChecksum checksum, int site) {
+    ChecksumState cs = checksumState(checksum);
+    return checksum.finish(checksum.add(cs.common, cs.site(site)));
+  }
+
+  /**
+   * Returns the current value of a tracked checksum for all sites
+   *
+   * @param checksum
+   * @return
+   */
+  public MultiSiteLong getChecksum(OrigenChecksum checksum) {
+    ChecksumState cs = checksumState(checksum);
+    MultiSiteLong result = new MultiSiteLong();
+    for (int site : _activeSites) {
+      result.set(site, checksum.finish(checksum.add(cs.common, cs.site(site))));
+    }
+    return result;
+  }
+
   /** Print all set data for all sites */
   public void printData() {
-    sort();
+    if (!_readOnly) {
+      sort();
+    }
     System.out.println(getUniqueAddressList());
-    for (int site : mem_data.getActiveSites()) {
+    int numAddr = _uniqueAddr.size();
+    for (int site : _activeSites) {
       System.out.println("Site: " + site);
-      long[][] d = mem_data.get(site);
-      long[] a = mem_addr.get(site);
-      for (int i = 0; i < d.length; i++) {
-        System.out.println(
-            a[i]
-                + "\t"
-                + OrigenHelpers.longToPaddedHexString(
-                    d[i][0], bitPerDataElement / 4, BitOrder.RIGHT_TO_LEFT));
-        System.out.println(
-                a[i]
-                    + "\t"
-                    + OrigenHelpers.longToPaddedHexString(
-                        d[i][1], bitPerDataElement / 4, BitOrder.RIGHT_TO_LEFT));
-        System.out.println(
-                a[i]
-                    + "\t"
-                    + OrigenHelpers.longToPaddedHexString(
-                        d[i][2], bitPerDataElement / 4, BitOrder.RIGHT_TO_LEFT));
-        System.out.println(
-                a[i]
-                    + "\t"
-                    + OrigenHelpers.longToPaddedHexString(
-                        d[i][3], bitPerDataElement / 4, BitOrder.RIGHT_TO_LEFT));
+      long[] a = new long[numAddr];
+      long[][] d = new long[numAddr][];
+      int n = 0;
+      for (int i = 0; i < numAddr; i++) {
+        if (addrIsSet(site, _uniqueAddr.get(i))) {
+          a[n] = _uniqueAddr.get(i);
+          d[n] = getDataPerSite(site, a[n]);
+          n++;
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        for (int part = 0; part < d[i].length; part++) {
+          System.out.println(
+              a[i]
+                  + "\t"
+                  + OrigenHelpers.longToPaddedHexString(
+                      d[i][part], bitPerDataElement / 4, BitOrder.RIGHT_TO_LEFT));
+        }
       }
     }
   }
 
   /** Clears all data on all sites */
   public void clearAllData() {
-    // Lazy man's approach: Basically just throwing the reference to the old MSLarray away
+    // Lazy man's approach: Basically just throwing the reference to the old layers away
     // Let's hope the garbage collector removes the old references nicely
-    mem_addr = new MultiSiteLongArray();
-    mem_data = new MultiSite2DLongArray();
-    _anythingSet = false;
+    // Off-heap pages are handed back to the pool, so the next image reuses them
+    beginWrite();
+    reset();
   }
   // Some private helper functions
 
   /**
-   * Returns the location in the array for a certain address. Returns the last+1 location of the
-   * array if addr is not found
+   * Drops all data and captures the active sites. Called by the constructor, so it must not call
+   * anything a subclass can override
+   */
+  private void reset() {
+    releasePages();
+    _activeSites = new MultiSiteBoolean().getActiveSites();
+    _isActive = new boolean[0];
+    for (int site : _activeSites) {
+      if (site >= _isActive.length) {
+        _isActive = Arrays.copyOf(_isActive, site + 1);
+      }
+      _isActive[site] = true;
+    }
+    _common = new OrigenDataLayer(_format, _initialCapacity, _pool);
+    _layers = new OrigenDataLayer[0];
+    _overrides = new OrigenAddressIndex();
+    _uniqueAddr = new OrigenAddressSet();
+    _parts = _baseParts;
+    _shared = false;
+    for (ChecksumState cs : _checksums) {
+      cs.common = 0;
+      cs.sites = new long[siteSlots()];
+    }
+    invalidateViews();
+    _anythingSet = false;
+  }
+
+  /** Returns the active sites captured by the last clearAllData() */
+  int[] activeSites() {
+    return _activeSites;
+  }
+
+  /** Returns the pool of off-heap pages, or null when everything is stored on the heap */
+  OrigenPagePool pagePool() {
+    return _pool;
+  }
+
+  /** Returns the common layer, for reading only */
+  OrigenDataLayer commonLayer() {
+    return _common;
+  }
+
+  /** Returns the site layers indexed by site number (null without data), for reading only */
+  OrigenDataLayer[] siteLayers() {
+    return _layers;
+  }
+
+  /**
+   * Releases all layers, off-heap pages no snapshot refers to go back to the pool. The layers must
+   * not be used afterwards
+   */
+  void releasePages() {
+    if (_common == null) {
+      return;
+    }
+    _common.release();
+    for (OrigenDataLayer layer : _layers) {
+      if (layer != null) {
+        layer.release();
+      }
+    }
+  }
+
+  /**
+   * Called before every write: throws an error on a snapshot, and takes over the bookkeeping shared
+   * with a snapshot by copying it. OrigenConcurrentData serializes this between sites
+   */
+  void beginWrite() {
+    if (_readOnly) {
+      throw new Error("OrigenData snapshot is read-only");
+    }
+    if (_shared) {
+      _overrides = _overrides.copy();
+      _uniqueAddr = _uniqueAddr.copy();
+      _shared = false;
+    }
+  }
+
+  /**
+   * Returns the number of per-site checksum accumulators to create upfront, so that writers of
+   * active sites never grow the array (OrigenConcurrentData writes sites in parallel)
+   */
+  private int siteSlots() {
+    int n = _layers.length;
+    for (int site : _activeSites) {
+      n = Math.max(n, site + 1);
+    }
+    return n;
+  }
+
+  /** Returns the state of a tracked checksum */
+  private ChecksumState checksumState(OrigenChecksum checksum) {
+    for (ChecksumState cs : _checksums) {
+      if (cs.checksum == checksum) {
+        return cs;
+      }
+    }
+    throw new Error("Checksum is not tracked by this OrigenData, call trackChecksum() first");
+  }
+
+  /** Returns the common layer for writing, replaced by a copy first if a snapshot shares it */
+  private OrigenDataLayer common() {
+    if (_common.isShared()) {
+      OrigenDataLayer shared = _common;
+      _common = shared.copy();
+      shared.release();
+    }
+    return _common;
+  }
+
+  /**
+   * Returns true if the site was active at the last clearAllData(), only active sites see the data
+   * of the common layer
+   *
+   * @param site
+   * @return
+   */
+  private boolean isActive(int site) {
+    return site >= 0 && site < _isActive.length && _isActive[site];
+  }
+
+  /**
+   * Returns the storage of a site, or null if nothing has been set on it yet
+   *
+   * @param site
+   * @return
+   */
+  private OrigenDataLayer findLayer(int site) {
+    if (site >= _layers.length) {
+      return null;
+    }
+    return _layers[site];
+  }
+
+  /**
+   * Returns the storage of a site for writing, creating it on first use and replacing it by a copy
+   * first if a snapshot shares it
    *
-   * @param arr
-   * @param val
+   * @param site
    * @return
    */
-  private int valInAddr(long[] arr, long val) {
-    if (arr != null) {
-      for (int i = 0; i < arr.length; i++) {
-        if (val == arr[i]) {
-          return i;
+  private OrigenDataLayer layerOf(int site) {
+    if (site >= _layers.length) {
+      _layers = Arrays.copyOf(_layers, site + 1);
+    }
+    if (_layers[site] == null) {
+      _layers[site] = new OrigenDataLayer(_format, 0, _pool);
+    } else if (_layers[site].isShared()) {
+      OrigenDataLayer shared = _layers[site];
+      _layers[site] = shared.copy();
+      shared.release();
+    }
+    return _layers[site];
+  }
+
+  /**
+   * Stores data for all sites in the common layer, dropping any site-specific data for this address
+   *
+   * @param addr
+   * @param data
+   */
+  private void putCommon(long addr, long[] data) {
+    beginWrite();
+    partsWritten(data.length);
+    storeCommon(addr, data);
+    published(1);
+  }
+
+  /**
+   * Stores site-specific data, overriding the common layer for this address
+   *
+   * @param site
+   * @param addr
+   * @param data
+   */
+  private void putOnSite(int site, long addr, long[] data) {
+    beginWrite();
+    partsWritten(data.length);
+    storeOnSite(site, layerOf(site), addr, data);
+    published(1);
+  }
+
+  /** Stores data in the common layer, without invalidating the views */
+  private void storeCommon(long addr, long[] data) {
+    boolean track = _checksums.length > 0;
+    long[] old = scratch(0);
+    boolean oldSet = track && _common.get(addr, old);
+    if (common().put(addr, data)) {
+      _uniqueAddr.add(addr);
+    }
+    if (track) {
+      long[] word = scratch(2);
+      _common.get(addr, word);
+      for (ChecksumState cs : _checksums) {
+        cs.common = cs.replace(cs.common, addr, oldSet ? old : null, word);
+      }
+    }
+    if (_overrides.remove(addr) != OrigenAddressIndex.NOT_FOUND) {
+      for (int site = 0; site < _layers.length; site++) {
+        if (_layers[site] != null && _layers[site].contains(addr)) {
+          if (track) {
+            // The site falls back to the old common word, the new one is in cs.common already
+            long[] siteWord = scratch(1);
+            _layers[site].get(addr, siteWord);
+            for (ChecksumState cs : _checksums) {
+              cs.setSite(site, cs.replace(cs.site(site), addr, siteWord, oldSet ? old : null));
+            }
+          }
+          layerOf(site).remove(addr);
+        }
+      }
+    }
+  }
+
+  /** Stores data in a site layer, without invalidating the views */
+  private void storeOnSite(int site, OrigenDataLayer layer, long addr, long[] data) {
+    boolean track = _checksums.length > 0;
+    long[] old = scratch(0);
+    boolean oldSet = track && (layer.get(addr, old) || _common.get(addr, old));
+    if (layer.put(addr, data)) {
+      siteAddressAdded(addr);
+    }
+    if (track) {
+      long[] word = scratch(2);
+      layer.get(addr, word);
+      for (ChecksumState cs : _checksums) {
+        cs.setSite(site, cs.replace(cs.site(site), addr, oldSet ? old : null, word));
+      }
+    }
+  }
+
+  /**
+   * Updates the address bookkeeping shared by all sites after an address was added to a site layer.
+   * OrigenConcurrentData serializes this between sites
+   *
+   * @param addr
+   */
+  void siteAddressAdded(long addr) {
+    _uniqueAddr.add(addr);
+    int count = _overrides.get(addr);
+    _overrides.put(addr, count == OrigenAddressIndex.NOT_FOUND ? 1 : count + 1);
+  }
+
+  /**
+   * Records the number of parts of written data, so the default layout returns the data with as
+   * many parts as the widest data written. OrigenConcurrentData serializes this between sites
+   *
+   * @param parts
+   */
+  void partsWritten(int parts) {
+    if (parts > _parts) {
+      _parts = parts;
+    }
+  }
+
+  /** Returns the number of parts of the data returned by the getData functions */
+  int wordParts() {
+    return _parts;
+  }
+
+  /**
+   * Merges the added addresses into the unique-address set and invalidates the views after a number
+   * of words has been stored, so reads never modify the bookkeeping. OrigenConcurrentData serializes
+   * this between sites
+   *
+   * @param words
+   */
+  void published(int words) {
+    _uniqueAddr.flush();
+    if (words > 0) {
+      invalidateViews();
+      _anythingSet = true;
+    }
+  }
+
+  /**
+   * Checks the arguments of a bulk load
+   *
+   * @return the number of parts per word in data
+   */
+  private int bulkParts(long[] addrs, long[] data, int wordWidth) {
+    if (wordWidth < 1 || wordWidth > _format.wordWidth) {
+      throw new Error(
+          "Bulk data words of "
+              + wordWidth
+              + " bits do not fit in the "
+              + _format.wordWidth
+              + " bit words of this OrigenData");
+    }
+    int parts = (wordWidth + _format.limbWidth - 1) / _format.limbWidth;
+    if ((long) addrs.length * parts != data.length) {
+      throw new Error(
+          "Bulk data has "
+              + data.length
+              + " parts for "
+              + addrs.length
+              + " addresses, expected "
+              + parts
+              + " parts per word");
+    }
+    return parts;
+  }
+
+  /**
+   * Builds the multisite views. Per site the addresses set on that site are listed in ascending
+   * order, with the site-specific data where it overrides the common data. The views are published
+   * when complete, so concurrent readers never see a partial view
+   */
+  private void buildViews() {
+    MultiSiteLongArray addrView = new MultiSiteLongArray();
+    MultiSite2DLongArray dataView = new MultiSite2DLongArray();
+    int numAddr = _uniqueAddr.size();
+    long[] word = new long[_format.numLimbs];
+    for (int site : _activeSites) {
+      long[] a = new long[numAddr];
+      long[][] d = new long[numAddr][];
+      int n = 0;
+      for (int i = 0; i < numAddr; i++) {
+        long addr = _uniqueAddr.get(i);
+        if (readSite(site, addr, word)) {
+          a[n] = addr;
+          d[n++] = Arrays.copyOf(word, _parts);
         }
       }
-      return arr.length;
+      addrView.set(site, Arrays.copyOf(a, n));
+      dataView.set(site, Arrays.copyOf(d, n));
     }
-    return 0;
+    mem_addr = addrView;
+    mem_data = dataView;
+  }
+
+  /** Returns the bit of a site in a site group bitmask */
+  private static long siteBit(int site) {
+    if (site < 1 || site > 64) {
+      throw new Error("Site groups only support sites 1 to 64, got site: " + site);
+    }
+    return 1L << (site - 1);
+  }
+
+  /**
+   * Reads the data of a site into dst without allocating
+   *
+   * @param site
+   * @param addr
+   * @param dst must hold at least getNumParts() elements
+   * @return false if the address is not set on this site, dst is untouched then
+   */
+  private boolean readSite(int site, long addr, long[] dst) {
+    if (!isActive(site)) {
+      return false;
+    }
+    OrigenDataLayer layer = findLayer(site);
+    return (layer != null && layer.get(addr, dst)) || _common.get(addr, dst);
+  }
+
+  /** Drops the multisite views, they get rebuilt on the next getMemAddr()/getMemData() */
+  private void invalidateViews() {
+    mem_addr = null;
+    mem_data = null;
+  }
+
+  /**
+   * Returns a scratch word of getNumParts() parts of the calling thread
+   *
+   * @param i 0, 1 or 2
+   * @return
+   */
+  private long[] scratch(int i) {
+    return _scratch.get()[i];
+  }
+
+  /** Creates the per-thread scratch words for a format */
+  private static ThreadLocal<long[][]> scratchWords(OrigenWordFormat format) {
+    return ThreadLocal.withInitial(() -> new long[3][format.numLimbs]);
+  }
+
+  /**
+   * Returns the first part of the data of a site without allocating
+   *
+   * @param site
+   * @param addr
+   * @return
+   */
+  private long smallDataPerSite(int site, long addr) {
+    long[] d = scratch(0);
+    if (!readSite(site, addr, d)) {
+      throw new Error("No Address set for site: " + site + "@addr: 0X" + Long.toHexString(addr));
+    }
+    return d[0];
   }
 
   /**
@@ -584,35 +1530,91 @@ public class OrigenData {
    * @return
    */
   private long[] getDataPerSite(int site, long addr) {
-    long[][] d = mem_data.get(site);
-    long[] a = mem_addr.get(site);
-    int loc = valInAddr(a, addr);
-    return d[loc];
+    long[] d = new long[_format.numLimbs];
+    if (!readSite(site, addr, d)) {
+      throw new Error("No Address set for site: " + site + "@addr: 0X" + Long.toHexString(addr));
+    }
+    return _parts == d.length ? d : Arrays.copyOf(d, _parts);
   }
 
   /**
-   * Expand the array by 1
-   *
-   * @param origArray
-   * @return
+   * Releases the layers a snapshot shares with its OrigenData, once. Must not refer to the snapshot,
+   * so the pool can run it after the snapshot has been garbage collected
    */
-  private long[] expand(long[] origArray) {
-    long[] newArray = new long[origArray.length + 1];
-    System.arraycopy(origArray, 0, newArray, 0, origArray.length);
-    return newArray;
+  private static class SnapshotRelease implements Runnable {
+    /** The common layer followed by the site layers, null once released */
+    private OrigenDataLayer[] layers;
+
+    SnapshotRelease(OrigenDataLayer[] layers) {
+      this.layers = layers;
+    }
+
+    @Override
+    public synchronized void run() {
+      if (layers == null) {
+        return;
+      }
+      for (OrigenDataLayer layer : layers) {
+        if (layer != null) {
+          layer.release();
+        }
+      }
+      layers = null;
+    }
   }
 
-/**
- * Expand the array by 1
- *
- * @param origArray
- * @return
- */
-private long[][] expand(long[][] origArray) {
-  long[][] newArray = new long[origArray.length + 1][4];
-  System.arraycopy(origArray, 0, newArray, 0, origArray.length);
-  return newArray;
-}
+  /**
+   * Accumulators of a tracked checksum: one over the common layer, and per site the change made by
+   * the words the site overrides. The checksum of a site is common + sites[site]
+   */
+  private static class ChecksumState {
+    final OrigenChecksum checksum;
+    long common;
+    /** Indexed by site number, grows on first use of a site */
+    long[] sites;
+
+    ChecksumState(OrigenChecksum checksum, int numSites) {
+      this.checksum = checksum;
+      this.sites = new long[numSites];
+    }
+
+    ChecksumState copy() {
+      ChecksumState c = new ChecksumState(checksum, 0);
+      c.common = common;
+      c.sites = sites.clone();
+      return c;
+    }
+
+    long site(int site) {
+      return site < sites.length ? sites[site] : 0;
+    }
+
+    void setSite(int site, long acc) {
+      if (site >= sites.length) {
+        sites = Arrays.copyOf(sites, site + 1);
+      }
+      sites[site] = acc;
+    }
+
+    /**
+     * Returns acc with the contribution of word from at addr replaced by that of word to
+     *
+     * @param acc
+     * @param addr
+     * @param from null if the address was not set
+     * @param to null if the address is not set anymore
+     * @return
+     */
+    long replace(long acc, long addr, long[] from, long[] to) {
+      if (from != null) {
+        acc = checksum.subtract(acc, checksum.contribution(addr, from));
+      }
+      if (to != null) {
+        acc = checksum.add(acc, checksum.contribution(addr, to));
+      }
+      return acc;
+    }
+  }
 }
 
 class DataPair<T> {
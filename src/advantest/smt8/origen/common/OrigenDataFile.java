@@ -0,0 +1,391 @@
+package origen.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Saves OrigenData in a compact binary file and loads it back, to cache prepared images on disk
+ *
+ * <p>Unlike OrigenDataImage this format stores the data exactly as OrigenData holds it: the common
+ * data and, in a section per site, the data a site overrides. Loading such a file is one read of
+ * the file followed by the bulk setters of OrigenData, nothing is parsed as text.
+ *
+ * <p>File layout, all numbers little-endian:
+ *
+ * <pre>
+ * header (32 bytes)
+ *   0  4 bytes  magic "ORGD"
+ *   4  u16      version, currently 1
+ *   6  u16      flags, 0
+ *   8  i32      word width in bits
+ *   12 i32      part width in bits (informational, any part width of the same word width loads)
+ *   16 i32      number of sections
+ *   20 i32      CRC-32 of the body
+ *   24 i64      body length in bytes
+ * section (body, starts 8-byte aligned), one for the common data and one per site with data
+ *   i32         site, -1 for the common data
+ *   i32         number of words n
+ *   i32         number of address bytes
+ *   bytes       addresses ascending: the first as zigzag varint, then the distance to the previous
+ *               address as unsigned varint (LEB128), so consecutive addresses take 1 byte each
+ *   padding     to the next multiple of 8 bytes
+ *   i64[]       the n words packed back to back, word i starts at bit i * word width
+ * </pre>
+ *
+ * <p>Usage example, building the trim template once per lot:
+ *
+ * <pre>{@code
+ * OrigenData mem = new OrigenData(32, 32);
+ * OrigenDataFile cache = new OrigenDataFile(mem);
+ * if (Files.exists(path)) {
+ *   cache.load(path);
+ * } else {
+ *   buildTemplate(mem);
+ *   cache.save(path);
+ * }
+ * }</pre>
+ */
+public class OrigenDataFile {
+  /** Current version of the format, files of a newer version are rejected */
+  public static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'O', 'R', 'G', 'D'};
+  private static final int HEADER_SIZE = 32;
+  /** Site number of the section holding the common data */
+  private static final int COMMON = -1;
+  private static final int SECTION_HEADER_SIZE = 12;
+  /** Number of words handed to OrigenData per bulk call */
+  private static final int BATCH_WORDS = 4096;
+
+  private final OrigenData data;
+  private final OrigenWordFormat format;
+
+  /**
+   * Constructor
+   *
+   * @param data the OrigenData to load into or save from
+   */
+  public OrigenDataFile(OrigenData data) {
+    this.data = data;
+    this.format = new OrigenWordFormat(data.getWordWidth(), data.getPartWidth());
+  }
+
+  /**
+   * Saves all data to a file, replacing it
+   *
+   * @param file
+   * @return the number of words saved
+   * @throws IOException
+   */
+  public int save(Path file) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      return write(channel);
+    }
+  }
+
+  /**
+   * Writes all data to a channel. An OrigenConcurrentData is written from a snapshot(), so other
+   * threads can keep writing to it meanwhile. Other OrigenData is written directly, it must not be
+   * written to while this runs
+   *
+   * @param out
+   * @return the number of words written
+   * @throws IOException
+   */
+  public int write(WritableByteChannel out) throws IOException {
+    if (!(data instanceof OrigenConcurrentData)) {
+      return write(data, out);
+    }
+    OrigenData snap = data.snapshot();
+    try {
+      return write(snap, out);
+    } finally {
+      snap.release();
+    }
+  }
+
+  /**
+   * Loads a file written by save(). The data is written on top of the existing data, call
+   * clearAllData() first to load a fresh image
+   *
+   * @param file
+   * @return the number of words loaded
+   * @throws IOException
+   */
+  public int load(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new Error("OrigenData file is too large: " + file);
+      }
+      ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      buf.order(ByteOrder.LITTLE_ENDIAN);
+      if (buf.remaining() < HEADER_SIZE) {
+        throw new Error("Not an OrigenData file, too short: " + file);
+      }
+      ByteBuffer header = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+      header.limit(HEADER_SIZE);
+      buf.position(HEADER_SIZE);
+      ByteBuffer body = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+      return read(header, body);
+    }
+  }
+
+  /**
+   * Reads data written by write() from a channel, see load()
+   *
+   * @param in
+   * @return the number of words loaded
+   * @throws IOException
+   */
+  public int read(ReadableByteChannel in) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(in, header);
+    checkMagic(header);
+    long bodySize = header.getLong(24);
+    if (bodySize < 0 || bodySize > Integer.MAX_VALUE) {
+      throw new Error("Not an OrigenData file, invalid body length: " + bodySize);
+    }
+    ByteBuffer body = ByteBuffer.allocate((int) bodySize).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(in, body);
+    header.flip();
+    body.flip();
+    return read(header, body);
+  }
+
+  // Writing
+
+  private int write(OrigenData src, WritableByteChannel out) throws IOException {
+    OrigenDataLayer common = src.commonLayer();
+    OrigenDataLayer[] layers = src.siteLayers();
+    long[] commonAddrs = sortedAddresses(common);
+    long[][] addrs = new long[layers.length][];
+    long bodySize = sectionSize(commonAddrs);
+    int sections = 1;
+    int words = commonAddrs.length;
+    for (int site = 0; site < layers.length; site++) {
+      if (layers[site] != null && layers[site].size() > 0) {
+        addrs[site] = sortedAddresses(layers[site]);
+        bodySize += sectionSize(addrs[site]);
+        sections++;
+        words += addrs[site].length;
+      }
+    }
+    if (HEADER_SIZE + bodySize > Integer.MAX_VALUE) {
+      throw new Error("OrigenData is too large for one file: " + bodySize + " bytes");
+    }
+    ByteBuffer buf =
+        ByteBuffer.allocate((int) (HEADER_SIZE + bodySize)).order(ByteOrder.LITTLE_ENDIAN);
+    buf.position(HEADER_SIZE);
+    long[] word = new long[format.numLimbs];
+    writeSection(buf, COMMON, common, commonAddrs, word);
+    for (int site = 0; site < layers.length; site++) {
+      if (addrs[site] != null) {
+        writeSection(buf, site, layers[site], addrs[site], word);
+      }
+    }
+    int end = buf.position();
+    CRC32 crc = new CRC32();
+    buf.position(HEADER_SIZE);
+    buf.limit(end);
+    crc.update(buf);
+    buf.position(0);
+    buf.put(MAGIC);
+    buf.putShort((short) VERSION);
+    buf.putShort((short) 0);
+    buf.putInt(format.wordWidth);
+    buf.putInt(format.limbWidth);
+    buf.putInt(sections);
+    buf.putInt((int) crc.getValue());
+    buf.putLong(end - HEADER_SIZE);
+    buf.position(0);
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    }
+    return words;
+  }
+
+  private static long[] sortedAddresses(OrigenDataLayer layer) {
+    long[] a = layer.addresses();
+    Arrays.sort(a);
+    return a;
+  }
+
+  /** Returns the number of bytes of a section, including the alignment padding */
+  private long sectionSize(long[] addrs) {
+    long size = SECTION_HEADER_SIZE + addressBytes(addrs);
+    size = (size + 7) & ~7L;
+    return size + 8L * format.longsFor(addrs.length);
+  }
+
+  private static int addressBytes(long[] addrs) {
+    int n = 0;
+    for (int i = 0; i < addrs.length; i++) {
+      n += varintSize(i == 0 ? zigzag(addrs[0]) : addrs[i] - addrs[i - 1]);
+    }
+    return n;
+  }
+
+  private void writeSection(
+      ByteBuffer buf, int site, OrigenDataLayer layer, long[] addrs, long[] word) {
+    int start = buf.position();
+    buf.putInt(site);
+    buf.putInt(addrs.length);
+    buf.putInt(addressBytes(addrs));
+    for (int i = 0; i < addrs.length; i++) {
+      putVarint(buf, i == 0 ? zigzag(addrs[0]) : addrs[i] - addrs[i - 1]);
+    }
+    while (((buf.position() - start) & 7) != 0) {
+      buf.put((byte) 0);
+    }
+    LongBuffer packed = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    for (int i = 0; i < addrs.length; i++) {
+      layer.get(addrs[i], word);
+      format.write(packed, i, word);
+    }
+    buf.position(buf.position() + 8 * format.longsFor(addrs.length));
+  }
+
+  private static long zigzag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  private static int varintSize(long v) {
+    int n = 1;
+    while ((v & ~0x7FL) != 0) {
+      v >>>= 7;
+      n++;
+    }
+    return n;
+  }
+
+  private static void putVarint(ByteBuffer buf, long v) {
+    while ((v & ~0x7FL) != 0) {
+      buf.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    buf.put((byte) v);
+  }
+
+  // Reading
+
+  private static void readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+    while (buf.hasRemaining()) {
+      if (in.read(buf) < 0) {
+        throw new Error("OrigenData file ends unexpectedly");
+      }
+    }
+  }
+
+  private static void checkMagic(ByteBuffer header) {
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (header.get(i) != MAGIC[i]) {
+        throw new Error("Not an OrigenData file, bad magic");
+      }
+    }
+  }
+
+  /** Checks the header and loads all sections of the body */
+  private int read(ByteBuffer header, ByteBuffer body) {
+    checkMagic(header);
+    int version = header.getShort(4) & 0xFFFF;
+    if (version > VERSION) {
+      throw new Error("OrigenData file version " + version + " is newer than " + VERSION);
+    }
+    int wordWidth = header.getInt(8);
+    if (wordWidth != format.wordWidth) {
+      throw new Error(
+          "OrigenData file holds "
+              + wordWidth
+              + " bit words, this OrigenData "
+              + format.wordWidth
+              + " bit words");
+    }
+    int sections = header.getInt(16);
+    long bodySize = header.getLong(24);
+    if (bodySize != body.remaining()) {
+      throw new Error(
+          "OrigenData file has a body of " + body.remaining() + " bytes, expected " + bodySize);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(body.duplicate());
+    if ((int) crc.getValue() != header.getInt(20)) {
+      throw new Error("OrigenData file is corrupt: checksum error");
+    }
+    int words = 0;
+    for (int s = 0; s < sections; s++) {
+      words += readSection(body);
+    }
+    return words;
+  }
+
+  private int readSection(ByteBuffer body) {
+    int start = body.position();
+    int site = body.getInt();
+    int n = body.getInt();
+    int addrBytes = body.getInt();
+    long[] addrs = new long[n];
+    long a = 0;
+    for (int i = 0; i < n; i++) {
+      long v = getVarint(body);
+      a = i == 0 ? (v >>> 1) ^ -(v & 1) : a + v;
+      addrs[i] = a;
+    }
+    if (body.position() - start != SECTION_HEADER_SIZE + addrBytes) {
+      throw new Error("OrigenData file is corrupt: bad address block of site " + site);
+    }
+    body.position(start + ((body.position() - start + 7) & ~7));
+    LongBuffer packed = body.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    body.position(body.position() + 8 * format.longsFor(n));
+
+    int batch = Math.min(n, BATCH_WORDS);
+    long[] batchAddr = new long[batch];
+    long[] batchData = new long[batch * format.numLimbs];
+    long[] word = new long[format.numLimbs];
+    for (int done = 0; done < n; done += batch) {
+      int count = Math.min(batch, n - done);
+      if (count < batch) {
+        batchAddr = new long[count];
+        batchData = new long[count * format.numLimbs];
+      }
+      System.arraycopy(addrs, done, batchAddr, 0, count);
+      for (int i = 0; i < count; i++) {
+        format.read(packed, done + i, word);
+        System.arraycopy(word, 0, batchData, i * format.numLimbs, format.numLimbs);
+      }
+      if (site == COMMON) {
+        data.setDataBulkAllSites(batchAddr, batchData, format.wordWidth);
+      } else {
+        data.setDataBulk(site, batchAddr, batchData, format.wordWidth);
+      }
+    }
+    return n;
+  }
+
+  private static long getVarint(ByteBuffer buf) {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf.get();
+      v |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return v;
+      }
+      if (shift >= 63) {
+        throw new Error("OrigenData file is corrupt: varint too long");
+      }
+    }
+  }
+}
@@ -0,0 +1,655 @@
+package origen.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads and writes OrigenData as NVM/OTP image files: Intel-HEX, Motorola S-record or raw binary
+ *
+ * <p>Files are read through a MappedByteBuffer and parsed byte by byte, no line or string is ever
+ * built. The parsed words are collected in primitive batches and handed to the bulk setters of
+ * OrigenData, so loading an image costs one pass over the file. Files are written through a
+ * FileChannel (raw binary through a MappedByteBuffer).
+ *
+ * <p>The files hold bytes, OrigenData holds words of getWordWidth() bits. A word takes
+ * bytesPerWord = getWordWidth() / 8 (rounded up) bytes, word address w covers byte addresses w *
+ * bytesPerWord .. (w + 1) * bytesPerWord - 1. By default the first byte of a word is its least
+ * significant byte, see setBigEndian(). Bits above the word width are dropped when loading.
+ *
+ * <p>The bytes of a word should be contiguous in the file, which is the case for files written by
+ * the usual tools. Bytes of a word that are not in the file get the fill byte (0xFF by default, the
+ * erased state).
+ *
+ * <p>Usage example, a golden image for all sites with a per-site trim overlay:
+ *
+ * <pre>{@code
+ * OrigenData mem = new OrigenData(32, 32);
+ * OrigenDataImage image = new OrigenDataImage(mem);
+ * image.load(Paths.get("golden.hex"));
+ * image.load(Paths.get("trim_site2.s19"), 2);
+ * image.save(Paths.get("site2.bin"), OrigenDataImage.Format.BINARY, 2);
+ * }</pre>
+ */
+public class OrigenDataImage {
+  /** Supported file formats */
+  public enum Format {
+    INTEL_HEX,
+    SREC,
+    BINARY;
+
+    /**
+     * Returns the format belonging to the extension of a file name: .hex/.ihx/.ihex, .srec/.s19/
+     * .s28/.s37/.mot or anything else as raw binary
+     *
+     * @param file
+     * @return
+     */
+    public static Format of(Path file) {
+      String name = file.getFileName().toString().toLowerCase();
+      int dot = name.lastIndexOf('.');
+      switch (dot < 0 ? "" : name.substring(dot + 1)) {
+        case "hex":
+        case "ihx":
+        case "ihex":
+          return INTEL_HEX;
+        case "srec":
+        case "s19":
+        case "s28":
+        case "s37":
+        case "mot":
+          return SREC;
+        default:
+          return BINARY;
+      }
+    }
+  }
+
+  /** Number of words handed to OrigenData per bulk call */
+  private static final int BATCH_WORDS = 4096;
+  /** Number of data bytes per written Intel-HEX or S-record line */
+  private static final int RECORD_BYTES = 16;
+  private static final int OUT_BUFFER_SIZE = 1 << 16;
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+  private final OrigenData data;
+  private final OrigenWordFormat format;
+  private final int bytesPerWord;
+  private boolean bigEndian = false;
+  private int fill = 0xFF;
+  private long rawOrigin = 0;
+
+  // Load state
+  private int site;
+  private long[] batchAddr;
+  private long[] batchData;
+  private int batchSize;
+  private long currentWord;
+  private boolean wordPending;
+  private final byte[] wordBytes;
+  private final long[] wordBits;
+  private final long[] wordParts;
+  private int wordsLoaded;
+
+  // Parser state
+  private MappedByteBuffer in;
+  private int line;
+
+  /**
+   * Constructor
+   *
+   * @param data the OrigenData to load into or save from
+   */
+  public OrigenDataImage(OrigenData data) {
+    this.data = data;
+    this.format = new OrigenWordFormat(data.getWordWidth(), data.getPartWidth());
+    this.bytesPerWord = (format.wordWidth + 7) / 8;
+    this.wordBytes = new byte[bytesPerWord];
+    this.wordBits = new long[(bytesPerWord + 7) / 8];
+    this.wordParts = new long[format.numLimbs];
+  }
+
+  /** Returns the number of bytes a word takes in an image file */
+  public int getBytesPerWord() {
+    return bytesPerWord;
+  }
+
+  /**
+   * Sets the byte order of a word in the files, false (default) stores the least significant byte
+   * first
+   *
+   * @param bigEndian
+   */
+  public void setBigEndian(boolean bigEndian) {
+    this.bigEndian = bigEndian;
+  }
+
+  /**
+   * Sets the value of word bytes missing from a loaded file and of gaps in a saved raw binary file
+   *
+   * @param fill 0x00..0xFF, default 0xFF
+   */
+  public void setFill(int fill) {
+    this.fill = fill & 0xFF;
+  }
+
+  /**
+   * Sets the byte address of the first byte of a raw binary file, default 0. Intel-HEX and
+   * S-record files hold their own addresses
+   *
+   * @param rawOrigin
+   */
+  public void setRawOrigin(long rawOrigin) {
+    this.rawOrigin = rawOrigin;
+  }
+
+  /**
+   * Loads an image for all sites, the format follows from the file extension
+   *
+   * @param file
+   * @return the number of words loaded
+   * @throws IOException
+   */
+  public int load(Path file) throws IOException {
+    return load(file, Format.of(file), -1);
+  }
+
+  /**
+   * Loads an image as an overlay for one site, the format follows from the file extension
+   *
+   * @param file
+   * @param site
+   * @return the number of words loaded
+   * @throws IOException
+   */
+  public int load(Path file, int site) throws IOException {
+    return load(file, Format.of(file), site);
+  }
+
+  /**
+   * Loads an image into OrigenData
+   *
+   * @param file
+   * @param fmt
+   * @param site the site to overlay, or -1 to load for all sites
+   * @return the number of words loaded
+   * @throws IOException
+   */
+  public int load(Path file, Format fmt, int site) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new Error("Image file is too large: " + file);
+      }
+      in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      startLoad(site);
+      switch (fmt) {
+        case INTEL_HEX:
+          parseIntelHex();
+          break;
+        case SREC:
+          parseSrec();
+          break;
+        default:
+          while (in.hasRemaining()) {
+            putByte(rawOrigin + in.position(), in.get());
+          }
+      }
+      return finishLoad();
+    } finally {
+      in = null;
+      batchAddr = null;
+      batchData = null;
+    }
+  }
+
+  /**
+   * Saves the data as seen by one site, the format follows from the file extension
+   *
+   * @param file
+   * @param site
+   * @return the number of words saved
+   * @throws IOException
+   */
+  public int save(Path file, int site) throws IOException {
+    return save(file, Format.of(file), site);
+  }
+
+  /**
+   * Saves the data as seen by one site
+   *
+   * @param file
+   * @param fmt
+   * @param site
+   * @return the number of words saved
+   * @throws IOException
+   */
+  public int save(Path file, Format fmt, int site) throws IOException {
+    long[] words = wordsOf(site);
+    try (FileChannel channel =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      switch (fmt) {
+        case INTEL_HEX:
+          writeIntelHex(channel, words, site);
+          break;
+        case SREC:
+          writeSrec(channel, words, site);
+          break;
+        default:
+          writeBinary(channel, words, site);
+      }
+    }
+    return words.length;
+  }
+
+  // Loading
+
+  private void startLoad(int site) {
+    this.site = site;
+    batchAddr = new long[BATCH_WORDS];
+    batchData = new long[BATCH_WORDS * format.numLimbs];
+    batchSize = 0;
+    wordPending = false;
+    wordsLoaded = 0;
+    line = 1;
+  }
+
+  private int finishLoad() {
+    flushWord();
+    flushBatch();
+    return wordsLoaded;
+  }
+
+  /** Adds one byte of the image at a byte address */
+  private void putByte(long byteAddr, byte b) {
+    long w = Math.floorDiv(byteAddr, bytesPerWord);
+    if (!wordPending || w != currentWord) {
+      flushWord();
+      currentWord = w;
+      wordPending = true;
+      Arrays.fill(wordBytes, (byte) fill);
+    }
+    wordBytes[(int) (byteAddr - w * bytesPerWord)] = b;
+  }
+
+  /** Converts the collected word bytes to parts and adds them to the batch */
+  private void flushWord() {
+    if (!wordPending) {
+      return;
+    }
+    wordPending = false;
+    for (int i = 0; i < bytesPerWord; i++) {
+      int significance = bigEndian ? bytesPerWord - 1 - i : i;
+      OrigenWordFormat.setBits(wordBits, significance * 8L, 8, wordBytes[i]);
+    }
+    long bit = 0;
+    int base = batchSize * format.numLimbs;
+    for (int l = 0; l < format.numLimbs; l++) {
+      int width = format.widthOfLimb(l);
+      batchData[base + l] = OrigenWordFormat.getBits(wordBits, bit, width);
+      bit += width;
+    }
+    batchAddr[batchSize++] = currentWord;
+    if (batchSize == BATCH_WORDS) {
+      flushBatch();
+    }
+  }
+
+  private void flushBatch() {
+    if (batchSize == 0) {
+      return;
+    }
+    long[] a = batchSize == BATCH_WORDS ? batchAddr : Arrays.copyOf(batchAddr, batchSize);
+    long[] d =
+        batchSize == BATCH_WORDS
+            ? batchData
+            : Arrays.copyOf(batchData, batchSize * format.numLimbs);
+    if (site < 0) {
+      data.setDataBulkAllSites(a, d, format.wordWidth);
+    } else {
+      data.setDataBulk(site, a, d, format.wordWidth);
+    }
+    wordsLoaded += batchSize;
+    batchSize = 0;
+  }
+
+  /** Parses an Intel-HEX file: data (00), end of file (01) and extended address (02, 04) records */
+  private void parseIntelHex() {
+    long base = 0;
+    while (skipToRecord(':')) {
+      int count = readByte();
+      int offset = (readByte() << 8) | readByte();
+      int type = readByte();
+      int sum = count + (offset >> 8) + (offset & 0xFF) + type;
+      switch (type) {
+        case 0x00:
+          for (int i = 0; i < count; i++) {
+            int b = readByte();
+            sum += b;
+            // The offset wraps within the 64K segment
+            putByte(base + ((offset + i) & 0xFFFF), (byte) b);
+          }
+          break;
+        case 0x01:
+          checkSum(sum + readByte());
+          return;
+        case 0x02:
+        case 0x04:
+          int value = (readByte() << 8) | readByte();
+          sum += (value >> 8) + (value & 0xFF);
+          base = type == 0x02 ? (long) value << 4 : (long) value << 16;
+          break;
+        default:
+          // Start address records
+          for (int i = 0; i < count; i++) {
+            sum += readByte();
+          }
+      }
+      checkSum(sum + readByte());
+    }
+  }
+
+  /** Parses an S-record file: data records S1/S2/S3, the other records are skipped */
+  private void parseSrec() {
+    while (skipToRecord('S')) {
+      int type = readChar() - '0';
+      int count = readByte();
+      int sum = count;
+      int addrBytes = type == 2 || type == 6 || type == 8 ? 3 : type == 3 || type == 7 ? 4 : 2;
+      long addr = 0;
+      for (int i = 0; i < addrBytes; i++) {
+        int b = readByte();
+        sum += b;
+        addr = (addr << 8) | b;
+      }
+      for (int i = 0; i < count - addrBytes - 1; i++) {
+        int b = readByte();
+        sum += b;
+        if (type >= 1 && type <= 3) {
+          putByte(addr + i, (byte) b);
+        }
+      }
+      if (((sum + readByte()) & 0xFF) != 0xFF) {
+        throw new Error("S-record line " + line + ": checksum error");
+      }
+      if (type >= 7) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Skips line ends and whitespace up to the start character of the next record
+   *
+   * @return false at the end of the file
+   */
+  private boolean skipToRecord(char start) {
+    while (in.hasRemaining()) {
+      int c = in.get();
+      if (c == start) {
+        return true;
+      }
+      if (c == '\n') {
+        line++;
+      } else if (c != '\r' && c != ' ' && c != '\t') {
+        throw new Error(
+            "Image line " + line + ": expected '" + start + "' but got '" + (char) c + "'");
+      }
+    }
+    return false;
+  }
+
+  private int readChar() {
+    if (!in.hasRemaining()) {
+      throw new Error("Image line " + line + ": unexpected end of file");
+    }
+    return in.get();
+  }
+
+  /** Reads two hex digits */
+  private int readByte() {
+    return (hexValue(readChar()) << 4) | hexValue(readChar());
+  }
+
+  private int hexValue(int c) {
+    if (c >= '0' && c <= '9') {
+      return c - '0';
+    }
+    if (c >= 'A' && c <= 'F') {
+      return c - 'A' + 10;
+    }
+    if (c >= 'a' && c <= 'f') {
+      return c - 'a' + 10;
+    }
+    throw new Error("Image line " + line + ": invalid hex digit '" + (char) c + "'");
+  }
+
+  private void checkSum(int sum) {
+    if ((sum & 0xFF) != 0) {
+      throw new Error("Intel HEX line " + line + ": checksum error");
+    }
+  }
+
+  // Saving
+
+  /** Returns the word addresses set on a site, ascending */
+  private long[] wordsOf(int site) {
+    int n = data.getNumUniqueAddr();
+    long[] words = new long[n];
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      long a = data.getAddressAt(i);
+      if (data.addrIsSet(site, a)) {
+        words[count++] = a;
+      }
+    }
+    return Arrays.copyOf(words, count);
+  }
+
+  /** Converts the data of a word to bytes, in file order */
+  private void wordToBytes(int site, long addr, byte[] out) {
+    data.readInto(site, addr, wordParts);
+    long bit = 0;
+    for (int l = 0; l < format.numLimbs; l++) {
+      int width = format.widthOfLimb(l);
+      OrigenWordFormat.setBits(wordBits, bit, width, wordParts[l]);
+      bit += width;
+    }
+    for (int i = 0; i < bytesPerWord; i++) {
+      int significance = bigEndian ? bytesPerWord - 1 - i : i;
+      // The top byte only has the bits below wordWidth, wordBits is shared with load()
+      int bits = Math.min(8, format.wordWidth - significance * 8);
+      long b = bits > 0 ? OrigenWordFormat.getBits(wordBits, significance * 8L, bits) : 0;
+      out[i] = (byte) b;
+    }
+  }
+
+  private void writeBinary(FileChannel channel, long[] words, int site) throws IOException {
+    long end = words.length == 0 ? rawOrigin : (words[words.length - 1] + 1) * bytesPerWord;
+    if (end - rawOrigin > Integer.MAX_VALUE) {
+      throw new Error("Raw binary image would be too large: " + (end - rawOrigin) + " bytes");
+    }
+    if (end <= rawOrigin) {
+      return;
+    }
+    MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, end - rawOrigin);
+    for (int i = 0; i < out.capacity(); i++) {
+      out.put(i, (byte) fill);
+    }
+    byte[] bytes = new byte[bytesPerWord];
+    for (long w : words) {
+      wordToBytes(site, w, bytes);
+      for (int i = 0; i < bytesPerWord; i++) {
+        long pos = w * bytesPerWord + i - rawOrigin;
+        if (pos >= 0) {
+          out.put((int) pos, bytes[i]);
+        }
+      }
+    }
+    out.force();
+  }
+
+  private void writeIntelHex(FileChannel channel, long[] words, int site) throws IOException {
+    ByteBuffer out = ByteBuffer.allocate(OUT_BUFFER_SIZE);
+    RecordWriter records =
+        new RecordWriter(channel, out) {
+          long upper = 0;
+
+          @Override
+          void record(long addr, byte[] bytes, int n) throws IOException {
+            if (addr >>> 32 != 0) {
+              throw new Error("Address does not fit in Intel HEX: 0x" + Long.toHexString(addr));
+            }
+            if (addr >>> 16 != upper) {
+              upper = addr >>> 16;
+              line(0x04, 0, new byte[] {(byte) (upper >> 8), (byte) upper}, 2);
+            }
+            line(0x00, (int) addr & 0xFFFF, bytes, n);
+          }
+
+          void line(int type, int offset, byte[] bytes, int n) throws IOException {
+            room(13 + 2 * n);
+            out.put((byte) ':');
+            int sum = putHex(n) + putHex(offset >> 8) + putHex(offset) + putHex(type);
+            for (int i = 0; i < n; i++) {
+              sum += putHex(bytes[i]);
+            }
+            putHex(-sum);
+            out.put((byte) '\r').put((byte) '\n');
+          }
+
+          @Override
+          void end() throws IOException {
+            line(0x01, 0, bytes, 0);
+          }
+        };
+    records.write(words, site, 0x10000);
+  }
+
+  private void writeSrec(FileChannel channel, long[] words, int site) throws IOException {
+    ByteBuffer out = ByteBuffer.allocate(OUT_BUFFER_SIZE);
+    long last = words.length == 0 ? 0 : (words[words.length - 1] + 1) * bytesPerWord - 1;
+    if (last >>> 32 != 0) {
+      throw new Error("Address does not fit in an S-record: 0x" + Long.toHexString(last));
+    }
+    final int addrBytes = last <= 0xFFFF ? 2 : last <= 0xFFFFFF ? 3 : 4;
+    RecordWriter records =
+        new RecordWriter(channel, out) {
+          @Override
+          void record(long addr, byte[] bytes, int n) throws IOException {
+            line(addrBytes - 1, addr, bytes, n);
+          }
+
+          void line(int type, long addr, byte[] bytes, int n) throws IOException {
+            int len = type == 0 ? 2 : type == 9 ? 2 : type == 8 ? 3 : type == 7 ? 4 : addrBytes;
+            room(8 + 2 * (len + n));
+            out.put((byte) 'S').put(HEX[type]);
+            int sum = putHex(len + n + 1);
+            for (int i = len - 1; i >= 0; i--) {
+              sum += putHex((int) (addr >>> (8 * i)));
+            }
+            for (int i = 0; i < n; i++) {
+              sum += putHex(bytes[i]);
+            }
+            putHex(~sum);
+            out.put((byte) '\r').put((byte) '\n');
+          }
+
+          @Override
+          void start() throws IOException {
+            line(0, 0, bytes, 0);
+          }
+
+          @Override
+          void end() throws IOException {
+            line(11 - addrBytes, 0, bytes, 0);
+          }
+        };
+    records.write(words, site, Long.MAX_VALUE);
+  }
+
+  /** Groups the bytes of consecutive words into records of up to RECORD_BYTES */
+  private abstract class RecordWriter {
+    final FileChannel channel;
+    final ByteBuffer out;
+    final byte[] bytes = new byte[RECORD_BYTES];
+
+    RecordWriter(FileChannel channel, ByteBuffer out) {
+      this.channel = channel;
+      this.out = out;
+    }
+
+    /** Writes one data record */
+    abstract void record(long addr, byte[] bytes, int n) throws IOException;
+
+    void start() throws IOException {}
+
+    abstract void end() throws IOException;
+
+    /**
+     * Writes all words, records never cross a multiple of the segment size
+     *
+     * @param words
+     * @param site
+     * @param segment
+     * @throws IOException
+     */
+    void write(long[] words, int site, long segment) throws IOException {
+      start();
+      byte[] word = new byte[bytesPerWord];
+      long recordAddr = 0;
+      int n = 0;
+      for (long w : words) {
+        wordToBytes(site, w, word);
+        for (int i = 0; i < bytesPerWord; i++) {
+          long a = w * bytesPerWord + i;
+          if (n > 0 && (a != recordAddr + n || n == RECORD_BYTES || a % segment == 0)) {
+            record(recordAddr, bytes, n);
+            n = 0;
+          }
+          if (n == 0) {
+            recordAddr = a;
+          }
+          bytes[n++] = word[i];
+        }
+      }
+      if (n > 0) {
+        record(recordAddr, bytes, n);
+      }
+      end();
+      out.flip();
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+    }
+
+    /** Makes sure the output buffer has room for n bytes */
+    void room(int n) throws IOException {
+      if (out.remaining() < n) {
+        out.flip();
+        while (out.hasRemaining()) {
+          channel.write(out);
+        }
+        out.clear();
+      }
+    }
+
+    /**
+     * Writes the low byte of a value as two hex digits
+     *
+     * @return the low byte
+     */
+    int putHex(int value) {
+      out.put(HEX[(value >> 4) & 0xF]).put(HEX[value & 0xF]);
+      return value & 0xFF;
+    }
+  }
+}
@@ -0,0 +1,471 @@
+package origen.common;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Address/data storage of one layer (common or site-specific) in OrigenData
+ *
+ * <p>The address space is divided in pages of PAGE_SIZE consecutive addresses. Each page is either
+ * sparse or dense:
+ *
+ * <ul>
+ *   <li>Sparse: the entries are kept as key/value pairs in arrays that have a capacity and a
+ *       logical size. The data words are packed back to back as described by OrigenWordFormat.
+ *       The arrays grow geometrically (doubling), and an OrigenAddressIndex maps each address to
+ *       its location in the arrays. This is efficient for large address ranges with little set
+ *       data, like fuse maps.
+ *   <li>Dense: the entries are kept in an OrigenDataPage, indexed by the offset in the page with a
+ *       presence bitmap. Dense pages hang in a directory of contiguous pages starting at a fixed
+ *       base page, so an access costs one array index and no address is stored per entry. This is
+ *       efficient for (nearly) full sectors, like flash images.
+ * </ul>
+ *
+ * <p>A sparse page is turned dense when PROMOTE_COUNT of its addresses are set. A dense page is
+ * turned sparse again when less than DEMOTE_COUNT of its addresses remain set. Pages too far from
+ * the directory base to fit in MAX_DIRECTORY_PAGES stay sparse.
+ *
+ * <p>When the layer has an OrigenPagePool, the dense pages are taken from the pool and keep their
+ * words in direct memory, outside the garbage collected heap.
+ *
+ * <p>A layer counts the OrigenData instances (the owner and its snapshots) referring to it. A layer
+ * that is shared with a snapshot must not be modified. The owner writes to a copy() instead, which
+ * copies the sparse arrays and shares the dense pages until they are written. When the last user
+ * releases the layer, its dense pages are dropped, and off-heap pages no other layer refers to go
+ * back to the pool.
+ */
+class OrigenDataLayer {
+  static final int PAGE_BITS = 8;
+  static final int PAGE_SIZE = 1 << PAGE_BITS;
+  static final int PROMOTE_COUNT = PAGE_SIZE / 4;
+  static final int DEMOTE_COUNT = PAGE_SIZE / 16;
+  static final int MAX_DIRECTORY_PAGES = 1 << 16;
+
+  private static final int MIN_CAPACITY = 16;
+
+  private final OrigenWordFormat format;
+  /** Source of off-heap dense pages, null to keep them on the heap */
+  private final OrigenPagePool pool;
+
+  // Sparse pages
+  private long[] addr;
+  private long[] words;
+  private int size;
+  private OrigenAddressIndex index;
+  /** Number of sparse entries per page number */
+  private OrigenAddressIndex pageCounts;
+  /** True while the sparse addresses are in ascending order */
+  private boolean sorted;
+
+  // Dense pages
+  private long basePage;
+  private OrigenDataPage[] pages;
+  private int denseSize;
+
+  /** Number of OrigenData instances referring to this layer */
+  private final AtomicInteger users = new AtomicInteger(1);
+
+  /**
+   * Constructor, creates an empty layer
+   *
+   * @param format
+   */
+  OrigenDataLayer(OrigenWordFormat format) {
+    this(format, 0, null);
+  }
+
+  /**
+   * Constructor, creates an empty layer that can hold the given number of sparse addresses without
+   * growing
+   *
+   * @param format
+   * @param capacity
+   * @param pool source of off-heap dense pages, or null to keep them on the heap
+   */
+  OrigenDataLayer(OrigenWordFormat format, int capacity, OrigenPagePool pool) {
+    this.format = format;
+    this.pool = pool;
+    addr = new long[capacity];
+    words = new long[format.longsFor(capacity)];
+    size = 0;
+    index = new OrigenAddressIndex(capacity);
+    pageCounts = new OrigenAddressIndex();
+    sorted = true;
+    pages = new OrigenDataPage[0];
+    denseSize = 0;
+  }
+
+  /**
+   * Returns an unshared copy of this layer. The sparse arrays are copied, the dense pages are
+   * shared and copied when they are written
+   */
+  OrigenDataLayer copy() {
+    OrigenDataLayer copy = new OrigenDataLayer(format, 0, pool);
+    copy.addr = addr.clone();
+    copy.words = words.clone();
+    copy.size = size;
+    copy.index = index.copy();
+    copy.pageCounts = pageCounts.copy();
+    copy.sorted = sorted;
+    copy.basePage = basePage;
+    copy.pages = pages.clone();
+    copy.denseSize = denseSize;
+    for (OrigenDataPage page : pages) {
+      if (page != null) {
+        page.retain();
+      }
+    }
+    return copy;
+  }
+
+  /** Adds an OrigenData referring to this layer */
+  void retain() {
+    users.incrementAndGet();
+  }
+
+  /** Returns true if more than one OrigenData refers to this layer, so it must be copied to write it */
+  boolean isShared() {
+    return users.get() > 1;
+  }
+
+  /** Returns the number of addresses set in this layer */
+  int size() {
+    return size + denseSize;
+  }
+
+  /**
+   * Returns true if the address is set in this layer
+   *
+   * @param a
+   * @return
+   */
+  boolean contains(long a) {
+    OrigenDataPage page = densePage(a);
+    if (page != null) {
+      return page.contains(offset(a));
+    }
+    return index.contains(a);
+  }
+
+  /**
+   * Unpacks the data of an address into limbs
+   *
+   * @param a
+   * @param limbs must hold at least format.numLimbs elements
+   * @return false if the address is not set in this layer, limbs is untouched then
+   */
+  boolean get(long a, long[] limbs) {
+    OrigenDataPage page = densePage(a);
+    if (page != null) {
+      int o = offset(a);
+      if (!page.contains(o)) {
+        return false;
+      }
+      page.read(o, limbs);
+      return true;
+    }
+    int loc = index.get(a);
+    if (loc == OrigenAddressIndex.NOT_FOUND) {
+      return false;
+    }
+    format.read(words, loc, limbs);
+    return true;
+  }
+
+  /**
+   * Sets the data for an address, adding the address when it is not yet in this layer
+   *
+   * @param a
+   * @param limbs
+   * @return true if the address was added
+   */
+  boolean put(long a, long[] limbs) {
+    format.checkLimbs(limbs);
+    OrigenDataPage page = densePage(a);
+    if (page != null) {
+      if (ownPage(a, page).put(offset(a), limbs)) {
+        denseSize++;
+        return true;
+      }
+      return false;
+    }
+    int loc = index.get(a);
+    if (loc != OrigenAddressIndex.NOT_FOUND) {
+      format.write(words, loc, limbs);
+      return false;
+    }
+    loc = addSparse(a);
+    format.write(words, loc, limbs);
+    if (pageCounts.get(a >> PAGE_BITS) >= PROMOTE_COUNT) {
+      promote(a >> PAGE_BITS);
+    }
+    return true;
+  }
+
+  /**
+   * Removes an address from this layer
+   *
+   * @param a
+   * @return true if the address was set in this layer
+   */
+  boolean remove(long a) {
+    OrigenDataPage page = densePage(a);
+    if (page != null) {
+      if (!page.contains(offset(a))) {
+        return false;
+      }
+      page = ownPage(a, page);
+      page.remove(offset(a));
+      denseSize--;
+      if (page.count() < DEMOTE_COUNT) {
+        demote(a >> PAGE_BITS);
+      }
+      return true;
+    }
+    return removeSparse(a);
+  }
+
+  /**
+   * Makes sure this layer can hold at least n sparse addresses without growing
+   *
+   * @param n
+   */
+  void ensureCapacity(int n) {
+    if (n <= addr.length) {
+      return;
+    }
+    int newCapacity = Math.max(Math.max(n, addr.length * 2), MIN_CAPACITY);
+    addr = Arrays.copyOf(addr, newCapacity);
+    words = Arrays.copyOf(words, format.longsFor(newCapacity));
+  }
+
+  /**
+   * Sizes the sparse arrays for a bulk load of the given addresses. Addresses in pages that get
+   * enough entries to be turned dense are not counted, so loading a full image does not leave large
+   * unused sparse arrays behind
+   *
+   * @param addrs
+   */
+  void prepareBulk(long[] addrs) {
+    OrigenAddressIndex counts = new OrigenAddressIndex(addrs.length / PROMOTE_COUNT + 1);
+    for (long a : addrs) {
+      if (densePage(a) == null) {
+        int count = counts.get(a >> PAGE_BITS);
+        counts.put(a >> PAGE_BITS, count == OrigenAddressIndex.NOT_FOUND ? 1 : count + 1);
+      }
+    }
+    int sparse = 0;
+    for (long a : addrs) {
+      if (densePage(a) == null && counts.get(a >> PAGE_BITS) < PROMOTE_COUNT) {
+        sparse++;
+      }
+    }
+    ensureCapacity(size + sparse);
+  }
+
+  /** Returns the set addresses, sparse ones first in storage order, then the dense ones */
+  long[] addresses() {
+    long[] result = new long[size()];
+    System.arraycopy(addr, 0, result, 0, size);
+    int n = size;
+    for (int p = 0; p < pages.length; p++) {
+      if (pages[p] == null) {
+        continue;
+      }
+      long pageAddr = (basePage + p) << PAGE_BITS;
+      for (int o = pages[p].nextSet(0); o >= 0; o = pages[p].nextSet(o + 1)) {
+        result[n++] = pageAddr | o;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Drops the reference of an OrigenData. The last one drops the dense pages, the caller must not use
+   * the layer afterwards
+   */
+  void release() {
+    if (users.decrementAndGet() > 0) {
+      return;
+    }
+    for (OrigenDataPage page : pages) {
+      if (page != null) {
+        dropPage(page);
+      }
+    }
+    pages = new OrigenDataPage[0];
+    denseSize = 0;
+  }
+
+  /** Returns true if the sparse addresses are in ascending order */
+  boolean isSorted() {
+    return sorted;
+  }
+
+  /**
+   * Sorts the sparse addresses and data by address, dense pages are always in address order.
+   * Overwriting data keeps the layer sorted, adding addresses out of order or removing addresses
+   * does not. Sorting a sorted layer does nothing
+   *
+   * @return true if anything was reordered
+   */
+  boolean sort() {
+    if (sorted) {
+      return false;
+    }
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    OrigenRadixSort.sort(addr, order, size);
+
+    long[] newWords = new long[words.length];
+    for (int i = 0; i < size; i++) {
+      format.copy(words, order[i], newWords, i);
+      index.put(addr[i], i);
+    }
+    words = newWords;
+    sorted = true;
+    return true;
+  }
+
+  // Some private helper functions
+
+  private static int offset(long a) {
+    return (int) a & (PAGE_SIZE - 1);
+  }
+
+  /** Returns the dense page holding this address, or null if its page is sparse */
+  private OrigenDataPage densePage(long a) {
+    long p = (a >> PAGE_BITS) - basePage;
+    if (p < 0 || p >= pages.length) {
+      return null;
+    }
+    return pages[(int) p];
+  }
+
+  /** Returns the dense page of an address, replaced by a copy first if it is shared */
+  private OrigenDataPage ownPage(long a, OrigenDataPage page) {
+    if (!page.isShared()) {
+      return page;
+    }
+    OrigenDataPage copy = page.copy();
+    pages[(int) ((a >> PAGE_BITS) - basePage)] = copy;
+    dropPage(page);
+    return copy;
+  }
+
+  /** Drops the reference of this layer to a page, handing it back to the pool if it was the last */
+  private void dropPage(OrigenDataPage page) {
+    if (page.drop() && pool != null) {
+      pool.free((OrigenOffHeapPage) page);
+    }
+  }
+
+  /**
+   * Adds a sparse address that is not yet in this layer
+   *
+   * @return the location where its word must be stored
+   */
+  private int addSparse(long a) {
+    ensureCapacity(size + 1);
+    if (size > 0 && a < addr[size - 1]) {
+      sorted = false;
+    }
+    int loc = size++;
+    addr[loc] = a;
+    index.put(a, loc);
+    long pageNum = a >> PAGE_BITS;
+    int count = pageCounts.get(pageNum);
+    pageCounts.put(pageNum, count == OrigenAddressIndex.NOT_FOUND ? 1 : count + 1);
+    return loc;
+  }
+
+  /** Removes a sparse address, the last element is moved into the freed location */
+  private boolean removeSparse(long a) {
+    int loc = index.remove(a);
+    if (loc == OrigenAddressIndex.NOT_FOUND) {
+      return false;
+    }
+    size--;
+    if (loc != size) {
+      addr[loc] = addr[size];
+      format.copy(words, size, words, loc);
+      index.put(addr[loc], loc);
+      sorted = false;
+    }
+    long pageNum = a >> PAGE_BITS;
+    int count = pageCounts.get(pageNum);
+    if (count <= 1) {
+      pageCounts.remove(pageNum);
+    } else {
+      pageCounts.put(pageNum, count - 1);
+    }
+    return true;
+  }
+
+  /** Moves all sparse entries of a page into a new dense page */
+  private void promote(long pageNum) {
+    if (!makeRoom(pageNum)) {
+      return;
+    }
+    OrigenDataPage page = pool == null ? new OrigenDataPage(format) : pool.allocate();
+    long pageAddr = pageNum << PAGE_BITS;
+    for (int o = 0; o < PAGE_SIZE; o++) {
+      int loc = index.get(pageAddr | o);
+      if (loc != OrigenAddressIndex.NOT_FOUND) {
+        page.copyFrom(words, loc, o);
+        page.markSet(o);
+        removeSparse(pageAddr | o);
+        denseSize++;
+      }
+    }
+    pages[(int) (pageNum - basePage)] = page;
+  }
+
+  /** Moves all entries of a dense page back to the sparse arrays */
+  private void demote(long pageNum) {
+    int p = (int) (pageNum - basePage);
+    OrigenDataPage page = pages[p];
+    pages[p] = null;
+    long pageAddr = pageNum << PAGE_BITS;
+    for (int o = page.nextSet(0); o >= 0; o = page.nextSet(o + 1)) {
+      int loc = addSparse(pageAddr | o);
+      page.copyTo(o, words, loc);
+      denseSize--;
+    }
+    dropPage(page);
+  }
+
+  /**
+   * Grows the page directory so it covers this page number
+   *
+   * @param pageNum
+   * @return false if the directory would get larger than MAX_DIRECTORY_PAGES
+   */
+  private boolean makeRoom(long pageNum) {
+    if (pages.length == 0) {
+      basePage = pageNum;
+      pages = new OrigenDataPage[1];
+      return true;
+    }
+    long first = Math.min(basePage, pageNum);
+    long last = Math.max(basePage + pages.length - 1, pageNum);
+    if (last - first + 1 > MAX_DIRECTORY_PAGES) {
+      return false;
+    }
+    if (first == basePage && last < basePage + pages.length) {
+      return true;
+    }
+    int length = (int) Math.min(Math.max(last - first + 1, pages.length * 2L), MAX_DIRECTORY_PAGES);
+    if (first < basePage) {
+      // Growing downwards, keep the extra room below the new page
+      first = last + 1 - length;
+    }
+    OrigenDataPage[] newPages = new OrigenDataPage[length];
+    System.arraycopy(pages, 0, newPages, (int) (basePage - first), pages.length);
+    basePage = first;
+    pages = newPages;
+    return true;
+  }
+}
@@ -0,0 +1,204 @@
+package origen.common;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dense storage of one page of addresses in an OrigenDataLayer
+ *
+ * <p>A page covers OrigenDataLayer.PAGE_SIZE consecutive addresses. The data words are packed in
+ * one long[] indexed directly by the offset of the address in the page, and a presence bitmap tells
+ * which offsets are set. No address is stored per entry.
+ *
+ * <p>The words of this class live on the heap, OrigenOffHeapPage keeps them in direct memory.
+ *
+ * <p>A page counts the layers referring to it. A page referred to by more than one layer (the layer
+ * of an OrigenData and that of a snapshot) must not be modified, the writing layer writes to a
+ * copy() instead. The last layer to drop its reference hands an off-heap page back to the pool.
+ */
+class OrigenDataPage {
+  final OrigenWordFormat format;
+  private final long[] present = new long[OrigenDataLayer.PAGE_SIZE >>> 6];
+  private final long[] words;
+  private int count;
+  /** Number of layers referring to this page, snapshots release theirs from other threads */
+  private final AtomicInteger refs = new AtomicInteger(1);
+
+  /**
+   * Constructor, creates an empty page
+   *
+   * @param format
+   */
+  OrigenDataPage(OrigenWordFormat format) {
+    this(format, true);
+  }
+
+  /**
+   * Constructor for subclasses that store the words themselves
+   *
+   * @param format
+   * @param onHeap false if the subclass stores the words, no heap array is allocated then
+   */
+  OrigenDataPage(OrigenWordFormat format, boolean onHeap) {
+    this.format = format;
+    words = onHeap ? new long[format.longsFor(OrigenDataLayer.PAGE_SIZE)] : null;
+  }
+
+  /** Adds a layer referring to this page */
+  void retain() {
+    refs.incrementAndGet();
+  }
+
+  /** Returns true if more than one layer refers to this page, so it must be copied to write it */
+  boolean isShared() {
+    return refs.get() > 1;
+  }
+
+  /**
+   * Drops the reference of a layer
+   *
+   * @return true if this was the last reference, the page must not be used afterwards
+   */
+  boolean drop() {
+    return refs.decrementAndGet() == 0;
+  }
+
+  /** Returns an unshared copy of this page */
+  OrigenDataPage copy() {
+    OrigenDataPage copy = new OrigenDataPage(format);
+    System.arraycopy(words, 0, copy.words, 0, words.length);
+    copy.copyPresence(this);
+    return copy;
+  }
+
+  /**
+   * Takes over which offsets are set from another page
+   *
+   * @param src
+   */
+  void copyPresence(OrigenDataPage src) {
+    System.arraycopy(src.present, 0, present, 0, present.length);
+    count = src.count;
+  }
+
+  /** Returns the number of set offsets in this page */
+  int count() {
+    return count;
+  }
+
+  /**
+   * Returns true if the offset is set
+   *
+   * @param offset
+   * @return
+   */
+  boolean contains(int offset) {
+    return (present[offset >>> 6] & (1L << offset)) != 0;
+  }
+
+  /**
+   * Unpacks the data of a set offset into limbs
+   *
+   * @param offset
+   * @param limbs
+   */
+  void read(int offset, long[] limbs) {
+    format.read(words, offset, limbs);
+  }
+
+  /**
+   * Sets the data of an offset
+   *
+   * @param offset
+   * @param limbs
+   * @return true if the offset was not set before
+   */
+  boolean put(int offset, long[] limbs) {
+    write(offset, limbs);
+    return markSet(offset);
+  }
+
+  /**
+   * Copies a packed word from sparse storage into an offset, without marking it as set
+   *
+   * @param src
+   * @param srcIndex
+   * @param offset
+   */
+  void copyFrom(long[] src, int srcIndex, int offset) {
+    format.copy(src, srcIndex, words, offset);
+  }
+
+  /**
+   * Copies the packed word of an offset into sparse storage
+   *
+   * @param offset
+   * @param dst
+   * @param dstIndex
+   */
+  void copyTo(int offset, long[] dst, int dstIndex) {
+    format.copy(words, offset, dst, dstIndex);
+  }
+
+  /**
+   * Packs limbs into the word of an offset, without marking it as set
+   *
+   * @param offset
+   * @param limbs
+   */
+  void write(int offset, long[] limbs) {
+    format.write(words, offset, limbs);
+  }
+
+  /**
+   * Marks an offset as set, after its word has been copied in with copyFrom()
+   *
+   * @param offset
+   * @return true if the offset was not set before
+   */
+  boolean markSet(int offset) {
+    if (contains(offset)) {
+      return false;
+    }
+    present[offset >>> 6] |= 1L << offset;
+    count++;
+    return true;
+  }
+
+  /**
+   * Clears an offset
+   *
+   * @param offset
+   * @return true if the offset was set
+   */
+  boolean remove(int offset) {
+    if (!contains(offset)) {
+      return false;
+    }
+    present[offset >>> 6] &= ~(1L << offset);
+    count--;
+    return true;
+  }
+
+  /**
+   * Returns the first set offset >= from, or -1 if there is none
+   *
+   * @param from
+   * @return
+   */
+  int nextSet(int from) {
+    int w = from >>> 6;
+    if (w >= present.length) {
+      return -1;
+    }
+    long bits = present[w] & (-1L << from);
+    while (true) {
+      if (bits != 0) {
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+      }
+      if (++w == present.length) {
+        return -1;
+      }
+      bits = present[w];
+    }
+  }
+}
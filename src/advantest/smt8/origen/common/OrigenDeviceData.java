@@ -1,13 +1,32 @@
 package origen.common;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import origen.test_methods.Base;
 import xoc.dta.UncheckedDTAException;
@@ -21,11 +40,27 @@ import xoc.dta.resultaccess.datatypes.MultiSiteBitSequence;
 public class OrigenDeviceData {
 
 
-    /** Instances of this class. 1 per test suite that accesses global variables **/
-    private static Map<Base, OrigenDeviceData> instances = new HashMap<Base, OrigenDeviceData>();
-
     /** The global storage container of all variables of all types **/
-    private static Map<OrigenVAR, OrigenDeviceDataTypeBase> varsInUse = new HashMap<OrigenVAR, OrigenDeviceDataTypeBase>();
+    private static final Registry varsInUse = new Registry();
+
+    /** Creates a variable of a type from its name. See registerFactory() */
+    private static final ConcurrentHashMap<Class<?>, Function<String, ? extends OrigenDeviceDataTypeBase>> factories =
+            new ConcurrentHashMap<Class<?>, Function<String, ? extends OrigenDeviceDataTypeBase>>();
+
+    /** Number of clearStorage() calls between two prints of dumpLockStats(), 0 for never */
+    private static volatile int lockStatsDumpInterval = 0;
+    private static final AtomicLong runs = new AtomicLong();
+
+    static
+    {
+        registerFactory(OrigenDeviceDataDouble.class, OrigenDeviceDataDouble::new);
+        registerFactory(OrigenDeviceDataMapDouble.class, OrigenDeviceDataMapDouble::new);
+        registerFactory(OrigenDeviceDataString.class, OrigenDeviceDataString::new);
+        registerFactory(OrigenDeviceDataBoolean.class, OrigenDeviceDataBoolean::new);
+        registerFactory(OrigenDeviceDataLongArray.class, OrigenDeviceDataLongArray::new);
+        registerFactory(OrigenDeviceDataLong.class, OrigenDeviceDataLong::new);
+        registerFactory(OrigenDeviceDataBitSequence.class, OrigenDeviceDataBitSequence::new);
+    }
 
 
     public interface OrigenVAR{
@@ -40,8 +75,16 @@ public class OrigenDeviceData {
     private Base tmRef = null;
 
 
-    /** List of Variables that have been reserved for the current execution of this DeviceData Instance. Always gets cleared at end of testsuite execution. */
-    private List<OrigenVAR> reservedDeviceDataVars = new ArrayList<OrigenVAR>();
+    /** Variables that have been reserved for the current execution of this DeviceData Instance, one bit per
+     * variable index of the registry. Always gets cleared at end of testsuite execution. */
+    private long[] reservedDeviceDataVars = new long[1];
+
+    /** Sites reserved per variable with reserve(name, sites), for variables this testsuite has not reserved as a whole.
+     * Always gets cleared at end of testsuite execution. */
+    private final HashMap<OrigenVAR, BitSet> reservedSites = new HashMap<OrigenVAR, BitSet>();
+
+    /** If true, get() of a variable this testsuite has not reserved returns the last committed version. See setReadCommitted() */
+    private boolean readCommitted = false;
 
 
     /** Acquire OrigenDeviceData instance for this testsuite
@@ -55,13 +98,13 @@ public class OrigenDeviceData {
      */
     public static OrigenDeviceData getInstance(Base _tmRef)
     {
-        OrigenDeviceData devData = instances.get(_tmRef);
+        // The instance of a testsuite is kept by the testmethod itself, 1 per test suite that accesses global variables
+        OrigenDeviceData devData = _tmRef.getOrigenDeviceDataStorage();
         if (devData == null)
         {
             devData = new OrigenDeviceData(_tmRef);
-            instances.put(_tmRef, devData);
+            _tmRef.setOrigenDeviceDataStorage(devData);
         }
-        _tmRef.setOrigenDeviceDataStorage(devData);
         return devData;
     }
 
@@ -75,18 +118,176 @@ public class OrigenDeviceData {
 
         log.append("[DeviceData] ******* Dump of Variable Storage *********\n" +
         "[DeviceData] ****** Name *******  Value ******* Type\n");
-        for (Map.Entry<OrigenVAR, OrigenDeviceDataTypeBase> entry : varsInUse.entrySet())
+        varsInUse.forEach((name, var) ->
         {
-            log.append("[OrigenDeviceData] " + entry.getKey() + ": \t" + entry.getValue() + " \t\t(" + entry.getKey().getType() + "\n");
-        }
+            log.append("[OrigenDeviceData] " + name + ": \t" + var + " \t\t(" + name.getType() + "\n");
+        });
         return log.toString();
     }
 
-    /** This clears the data storage, and should be called before each run, e.g. from preRun
+    /** This clears the data storage, and should be called before each run, e.g. from preRun.
+     * <p>Prints nothing unless a lock statistics interval has been set with setLockStatsDumpInterval()
      */
     public static void clearStorage()
     {
-        varsInUse.clear();
+        int interval = lockStatsDumpInterval;
+        if (interval > 0 && runs.incrementAndGet() % interval == 0)
+        {
+            System.out.println(dumpLockStats());
+        }
+        varsInUse.clear(OrigenDeviceData::createVariable);
+    }
+
+    /** Returns the lock statistics of a variable, kept across clearStorage() until resetLockStats()
+     * @param name : DeviceData.VAR
+     * @return OrigenDeviceDataLockStats
+     */
+    public static OrigenDeviceDataLockStats getLockStats(OrigenVAR name)
+    {
+        return varsInUse.slot(varsInUse.indexOf(name)).stats;
+    }
+
+    /** Returns the lock statistics of all variables that have been locked, the ones that made suites wait
+     * longest first. E.g. print it at the end of a lot to find the variables that serialize the flow
+     * @return dump
+     */
+    public static String dumpLockStats()
+    {
+        List<Registry.Slot> locked = new ArrayList<Registry.Slot>();
+        for (int i = 0; i < varsInUse.size; i++)
+        {
+            Registry.Slot slot = varsInUse.slot(i);
+            if (slot.stats.getAcquisitions() > 0 || slot.stats.getTimeouts() > 0)
+            {
+                locked.add(slot);
+            }
+        }
+        locked.sort((a, b) -> Long.compare(b.stats.getTotalWaitNanos(), a.stats.getTotalWaitNanos()));
+
+        StringBuilder log = new StringBuilder();
+        log.append("[DeviceData] ******* Lock Statistics *********\n" +
+        "[DeviceData] ****** Name *******  Statistics\n");
+        for (Registry.Slot slot : locked)
+        {
+            log.append("[OrigenDeviceData] " + slot.name + ": \t" + slot.stats + "\n");
+        }
+        return log.toString();
+    }
+
+    /** Resets the lock statistics of all variables */
+    public static void resetLockStats()
+    {
+        for (int i = 0; i < varsInUse.size; i++)
+        {
+            varsInUse.slot(i).stats.reset();
+        }
+    }
+
+    /** Prints dumpLockStats() every given number of runs, counted by clearStorage() from this call on.
+     * Off by default
+     * @param interval : number of runs, 0 to stop printing
+     */
+    public static void setLockStatsDumpInterval(int interval)
+    {
+        if (interval < 0)
+        {
+            throw new UncheckedDTAException("Lock statistics dump interval must be >= 0, got " + interval);
+        }
+        runs.set(0);
+        lockStatsDumpInterval = interval;
+    }
+
+    /** Registers how variables of a type are created, replacing the reflective constructor lookup.
+     * <p>The built-in types are registered already. Own types that are not registered get their (String)
+     * constructor looked up once per type and called through a MethodHandle.
+     * @param type : the variable class, as returned by OrigenVAR.getType()
+     * @param factory : creates a variable from its name, e.g. MyType::new
+     */
+    public static <T extends OrigenDeviceDataTypeBase> void registerFactory(Class<T> type, Function<String, T> factory)
+    {
+        factories.put(type, factory);
+    }
+
+    /** Creates the given variables ahead of the first test, e.g. from the program init or preRun.
+     * <p>Without this, a variable is created on the first set() or reserve(), in the foreground of whichever
+     * suite touches it first on the first device. Prewarmed variables are recreated empty by clearStorage(),
+     * so they exist from the first device of every run on. A get() before the first set() returns null
+     * instead of failing, as the variable exists but has no value yet.
+     * @param names : DeviceData.VAR
+     */
+    public static void prewarm(OrigenVAR... names)
+    {
+        for (OrigenVAR name : names)
+        {
+            Registry.Slot slot = varsInUse.slot(varsInUse.indexOf(name));
+            slot.prewarmed = true;
+            if (slot.get() == null)
+            {
+                slot.putIfAbsent(createVariable(name));
+            }
+        }
+    }
+
+    /** Creates all variables of an enum of OrigenVAR ahead of the first test, see prewarm()
+     * @param type : e.g. DeviceData.VAR.class
+     */
+    public static void prewarmAll(Class<? extends Enum<?>> type)
+    {
+        if (!OrigenVAR.class.isAssignableFrom(type))
+        {
+            throw new UncheckedDTAException("Cannot prewarm " + type.getName() + ", it does not implement OrigenVAR");
+        }
+        prewarm((OrigenVAR[]) type.getEnumConstants());
+    }
+
+    /** Creates a new, empty variable */
+    private static OrigenDeviceDataTypeBase createVariable(OrigenVAR name)
+    {
+        Function<String, ? extends OrigenDeviceDataTypeBase> factory = factories.get(name.getType());
+        if (factory == null)
+        {
+            factory = factories.computeIfAbsent(name.getType(), OrigenDeviceData::constructorFactory);
+        }
+        try
+        {
+            return factory.apply(name.toString());
+        }
+        catch (RuntimeException e)
+        {
+            throw new UncheckedDTAException("Error creating DeviceData variable " + name.toString(), e);
+        }
+    }
+
+    /** Looks up the (String) constructor of a type that has no registered factory */
+    private static Function<String, ? extends OrigenDeviceDataTypeBase> constructorFactory(Class<?> type)
+    {
+        MethodHandle handle;
+        try
+        {
+            Constructor<?> constructor = type.getDeclaredConstructor(String.class);
+            constructor.setAccessible(true);
+            handle = MethodHandles.lookup().unreflectConstructor(constructor)
+                    .asType(MethodType.methodType(OrigenDeviceDataTypeBase.class, String.class));
+        }
+        catch (Exception e)
+        {
+            throw new UncheckedDTAException("Error looking up the constructor of DeviceData type " + type.getName(), e);
+        }
+        return name ->
+        {
+            try
+            {
+                return (OrigenDeviceDataTypeBase) handle.invokeExact(name);
+            }
+            catch (RuntimeException | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable e)
+            {
+                throw new UncheckedDTAException("Error creating DeviceData variable " + name, e);
+            }
+        };
     }
 
     /** Constructor. Use getInstance instead
@@ -100,61 +301,833 @@ public class OrigenDeviceData {
 
 
 
-    /** Base class for global variables */
-    public static abstract class OrigenDeviceDataTypeBase
-    {
-        protected String name;
-        protected Semaphore lock = new Semaphore(1);
-        protected long timeOut_us = 10000000;
+    /** Storage of all variables, safe for access from fore- and background threads
+     * <p>Every variable name gets a dense index on first use. The variables of an enum (the common case) get
+     * consecutive indices, so the index is a per-class offset plus the ordinal, without hashing. Other OrigenVAR
+     * implementations get their index from a concurrent map. The variables are kept in chunks of slots indexed by
+     * that number, chunks never move once created.
+     */
+    private static final class Registry
+    {
+        private static final int CHUNK_BITS = 8;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+        /** Holds the variable of one name, null until created */
+        @SuppressWarnings("serial")
+        static final class Slot extends AtomicReference<OrigenDeviceDataTypeBase>
+        {
+            final OrigenVAR name;
+            /** Set by prewarm(), the variable is recreated when the storage is cleared */
+            volatile boolean prewarmed = false;
+            /** Lock statistics of the name, they survive clearing the storage */
+            final OrigenDeviceDataLockStats stats = new OrigenDeviceDataLockStats();
+
+            Slot(OrigenVAR _name)
+            {
+                name = _name;
+            }
+
+            /** Stores a new variable, unless one has been stored meanwhile
+             * @return the stored variable
+             */
+            OrigenDeviceDataTypeBase putIfAbsent(OrigenDeviceDataTypeBase var)
+            {
+                var.lockStats = stats;
+                return compareAndSet(null, var) ? var : get();
+            }
+
+            /** Replaces the variable */
+            void reset(OrigenDeviceDataTypeBase var)
+            {
+                if (var != null)
+                {
+                    var.lockStats = stats;
+                }
+                set(var);
+            }
+        }
+
+        /** Index of the first constant of an enum class */
+        private final ClassValue<Integer> enumOffsets = new ClassValue<Integer>()
+        {
+            @Override protected Integer computeValue(Class<?> type)
+            {
+                return allocateEnum(type);
+            }
+        };
+        private final Map<Class<?>, Integer> allocatedEnums = new HashMap<Class<?>, Integer>();
+        /** Index of the names that are not an enum */
+        private final ConcurrentHashMap<OrigenVAR, Integer> others = new ConcurrentHashMap<OrigenVAR, Integer>();
+        private volatile Slot[][] chunks = new Slot[0][];
+        /** Number of indices handed out */
+        private volatile int size = 0;
+
+        /** Returns the dense index of a name, handing out a new one on first use */
+        int indexOf(OrigenVAR name)
+        {
+            if (name instanceof Enum)
+            {
+                Enum<?> e = (Enum<?>) name;
+                return enumOffsets.get(e.getDeclaringClass()) + e.ordinal();
+            }
+            Integer index = others.get(name);
+            if (index == null)
+            {
+                index = others.computeIfAbsent(name, k -> allocate(new OrigenVAR[] {k}));
+            }
+            return index;
+        }
+
+        /** Returns the slot of a dense index */
+        Slot slot(int index)
+        {
+            return chunks[index >>> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+        }
+
+        /** Returns a variable, or null if it has not been created */
+        OrigenDeviceDataTypeBase get(OrigenVAR name)
+        {
+            return slot(indexOf(name)).get();
+        }
+
+        /** Stores a new variable, unless one has been stored meanwhile
+         * @return the stored variable
+         */
+        OrigenDeviceDataTypeBase putIfAbsent(OrigenVAR name, OrigenDeviceDataTypeBase var)
+        {
+            return slot(indexOf(name)).putIfAbsent(var);
+        }
+
+        /** Removes all variables, the indices stay. Prewarmed variables are replaced by new ones */
+        void clear(Function<OrigenVAR, OrigenDeviceDataTypeBase> create)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                Slot slot = slot(i);
+                slot.reset(slot.prewarmed ? create.apply(slot.name) : null);
+            }
+        }
+
+        /** Calls the visitor for every created variable, in order of first use of the names */
+        void forEach(BiConsumer<OrigenVAR, OrigenDeviceDataTypeBase> visitor)
+        {
+            for (int i = 0; i < size; i++)
+            {
+                Slot slot = slot(i);
+                OrigenDeviceDataTypeBase var = slot.get();
+                if (var != null)
+                {
+                    visitor.accept(slot.name, var);
+                }
+            }
+        }
+
+        private synchronized int allocateEnum(Class<?> type)
+        {
+            // ClassValue may compute a value more than once when threads race, hand out the range only once
+            Integer offset = allocatedEnums.get(type);
+            if (offset == null)
+            {
+                Object[] constants = type.getEnumConstants();
+                OrigenVAR[] names = new OrigenVAR[constants.length];
+                for (int i = 0; i < constants.length; i++)
+                {
+                    names[i] = (OrigenVAR) constants[i];
+                }
+                offset = allocate(names);
+                allocatedEnums.put(type, offset);
+            }
+            return offset;
+        }
+
+        /** Hands out consecutive indices for names, creating their slots before the indices are published */
+        private synchronized int allocate(OrigenVAR[] names)
+        {
+            int offset = size;
+            int end = offset + names.length;
+            Slot[][] c = chunks;
+            int needed = (end + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+            if (needed > c.length)
+            {
+                c = Arrays.copyOf(c, needed);
+                for (int i = chunks.length; i < needed; i++)
+                {
+                    c[i] = new Slot[CHUNK_SIZE];
+                }
+            }
+            for (int i = 0; i < names.length; i++)
+            {
+                c[(offset + i) >>> CHUNK_BITS][(offset + i) & (CHUNK_SIZE - 1)] = new Slot(names[i]);
+            }
+            chunks = c;
+            size = end;
+            return offset;
+        }
+    }
+
+
+    /** Lock statistics of a variable: how often it was locked, how long the lockers waited and held it,
+     * who holds it now and how often locking timed out. See OrigenDeviceData.getLockStats()
+     * <p>Waits are counted in decades: below 10us (no contention), 100us, 1ms, 10ms, 100ms, 1s and above.
+     * <p>Locks of single sites (see reserve(name, sites)) are counted like locks of the whole variable.
+     */
+    public static final class OrigenDeviceDataLockStats
+    {
+        /** Upper bounds of the wait histogram buckets in microseconds, the last bucket has no bound */
+        public static final long[] WAIT_BUCKETS_US = {10, 100, 1000, 10000, 100000, 1000000};
+
+        private final AtomicLong acquisitions = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong totalHoldNanos = new AtomicLong();
+        private final AtomicLong maxHoldNanos = new AtomicLong();
+        private final AtomicLongArray waitHistogram = new AtomicLongArray(WAIT_BUCKETS_US.length + 1);
+        private volatile String holder = null;
+        private volatile long heldSince = 0;
+        private volatile String lastTimeoutHolder = null;
+
+        /** Called after the lock has been acquired */
+        void acquired(String _holder, long waitNanos, long now)
+        {
+            waited(waitNanos);
+            holder = _holder;
+            heldSince = now;
+        }
+
+        /** Called before the lock is released */
+        void released(long now)
+        {
+            held(now - heldSince);
+            holder = null;
+        }
+
+        /** Called after the lock of a site has been acquired. Sites are held by several holders at once, so they
+         * are counted but not named in getHolder()
+         */
+        void siteAcquired(long waitNanos)
+        {
+            waited(waitNanos);
+        }
+
+        /** Called before the lock of a site is released */
+        void siteReleased(long heldNanos)
+        {
+            held(heldNanos);
+        }
+
+        private void waited(long waitNanos)
+        {
+            acquisitions.incrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+            int bucket = 0;
+            while (bucket < WAIT_BUCKETS_US.length && waitNanos >= WAIT_BUCKETS_US[bucket] * 1000)
+            {
+                bucket++;
+            }
+            waitHistogram.incrementAndGet(bucket);
+        }
+
+        private void held(long heldNanos)
+        {
+            totalHoldNanos.addAndGet(heldNanos);
+            maxHoldNanos.accumulateAndGet(heldNanos, Math::max);
+        }
+
+        /** Called when the lock is given back unused, e.g. by a rolled back reserve(). Counts no hold time */
+        void abandoned()
+        {
+            holder = null;
+        }
+
+        /** Called when acquiring the lock timed out */
+        void timedOut()
+        {
+            timeouts.incrementAndGet();
+            lastTimeoutHolder = holder;
+        }
+
+        public long getAcquisitions()
+        {
+            return acquisitions.get();
+        }
+
+        public long getTimeouts()
+        {
+            return timeouts.get();
+        }
+
+        public long getTotalWaitNanos()
+        {
+            return totalWaitNanos.get();
+        }
+
+        public long getMaxWaitNanos()
+        {
+            return maxWaitNanos.get();
+        }
+
+        public long getTotalHoldNanos()
+        {
+            return totalHoldNanos.get();
+        }
+
+        public long getMaxHoldNanos()
+        {
+            return maxHoldNanos.get();
+        }
+
+        /** Returns the number of acquisitions per wait bucket, see WAIT_BUCKETS_US
+         * @return long[]
+         */
+        public long[] getWaitHistogram()
+        {
+            long[] counts = new long[waitHistogram.length()];
+            for (int i = 0; i < counts.length; i++)
+            {
+                counts[i] = waitHistogram.get(i);
+            }
+            return counts;
+        }
+
+        /** Returns the test suite holding the variable, or null if it is free
+         * @return test suite name
+         */
+        public String getHolder()
+        {
+            return holder;
+        }
+
+        /** Returns the test suite that held the variable when locking timed out the last time
+         * @return test suite name, or null
+         */
+        public String getLastTimeoutHolder()
+        {
+            return lastTimeoutHolder;
+        }
+
+        public void reset()
+        {
+            acquisitions.set(0);
+            timeouts.set(0);
+            totalWaitNanos.set(0);
+            maxWaitNanos.set(0);
+            totalHoldNanos.set(0);
+            maxHoldNanos.set(0);
+            for (int i = 0; i < waitHistogram.length(); i++)
+            {
+                waitHistogram.set(i, 0);
+            }
+            lastTimeoutHolder = null;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "locks=" + getAcquisitions() + " wait=" + getTotalWaitNanos() / 1000 + "us (max "
+                    + getMaxWaitNanos() / 1000 + "us) hold=" + getTotalHoldNanos() / 1000 + "us (max "
+                    + getMaxHoldNanos() / 1000 + "us) waits<10us,100us,1ms,10ms,100ms,1s,more="
+                    + Arrays.toString(getWaitHistogram()) + " timeouts=" + getTimeouts()
+                    + (holder != null ? " heldBy=" + holder : "")
+                    + (lastTimeoutHolder != null ? " lastTimeoutHeldBy=" + lastTimeoutHolder : "");
+        }
+    }
+
+
+    /** Base class for global variables
+     * <p>Writers (set() and reserve()) take the write lock of a variable and keep it like before, until the
+     * variable is released. Readers that have not reserved the variable take no lock at all: they read the value
+     * optimistically and only fall back to a shared read lock when a writer holds or took the variable meanwhile.
+     * So suites that only read a trim value in fore- and background do not wait for each other.
+     * <p>Every release of the write lock after a change commits a copy of the value as a new version. Setters change
+     * the value, and so may the holder of the variable through the value returned by a get(). Readers in read
+     * committed mode (see OrigenDeviceData.setReadCommitted()) get the last committed version without waiting.
+     * <p>Besides the lock of the whole variable there is a lock per site (see lockSite()), so writers of different
+     * sites do not wait for each other. siteGuard keeps holders of sites and holders of the whole variable apart.
+     */
+    public static abstract class OrigenDeviceDataTypeBase
+    {
+        protected String name;
+        protected final StampedLock lock = new StampedLock();
+        /** Stamp of the write lock while the variable is locked for writing, 0 otherwise */
+        protected volatile long writeStamp = 0;
+        /** Serializes writeSite() of the threads of the holder of the whole variable, e.g. its per-site workers */
+        private final Object heldWrites = new Object();
+        /** Copy of the value at the last commit, see copyValue() */
+        private volatile Object committed = null;
+        /** Number of commits so far, 0 while no value has been committed */
+        private volatile long version = 0;
+        /** True while the value has changed since the last commit, see markDirty() */
+        private volatile boolean dirty = false;
+        protected long timeOut_us = 10000000;
+        /** Lock statistics, shared by all variables of the same name */
+        private OrigenDeviceDataLockStats lockStats = new OrigenDeviceDataLockStats();
+        /** Run after the next release of the write lock, see readWhenReleased() */
+        private final ConcurrentLinkedQueue<Runnable> releaseWaiters = new ConcurrentLinkedQueue<Runnable>();
+        /** Held in read mode by site reservations and in write mode by reservations of the whole variable */
+        protected final StampedLock siteGuard = new StampedLock();
+        /** Stamp of siteGuard while the variable is locked for writing, 0 otherwise */
+        private long guardStamp = 0;
+        /** Lock stripe per site, created on first use */
+        private final ConcurrentHashMap<Integer, SiteStripe> stripes = new ConcurrentHashMap<Integer, SiteStripe>();
+
+        /** Threads completing the futures of readWhenReleased(), started on first use. The futures are never completed
+         * in the thread releasing the variable, so whatever waits on them cannot hold up the release */
+        private static final class Completions
+        {
+            static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> daemon(r, "OrigenDeviceData completions"));
+            /** Times out the reads not completed in time */
+            static final ScheduledThreadPoolExecutor TIMEOUTS = new ScheduledThreadPoolExecutor(1, r -> daemon(r, "OrigenDeviceData timeouts"));
+            static
+            {
+                TIMEOUTS.setRemoveOnCancelPolicy(true);
+            }
+
+            private static Thread daemon(Runnable r, String name)
+            {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        }
+
+        /** Lock of a single site of a variable */
+        private static final class SiteStripe
+        {
+            final StampedLock lock = new StampedLock();
+            long writeStamp = 0;
+            long guardStamp = 0;
+            long heldSince = 0;
+        }
+
+        public OrigenDeviceDataTypeBase()
+        {
+        }
+        protected OrigenDeviceDataTypeBase (String _name)
+        {
+            name = _name;
+        }
+
+        public void setName(String _name)
+        {
+            name = _name;
+        }
+
+        /** Acquires lock on a variable.
+         * <p>This method returns immediately, unless some one else already keeps a lock on this variable,
+         * e.g. the previous testsuite.
+         * In this case it waits until lock is released or a timeout occurs
+         * If a wait happens, this wait is part of the foreground of a testsuite, before release93k().<br>
+         *
+         * In the .prog Test program file,  the timing profile can be enabled to printout information
+         * about any Device Data wait times during program execution.<br>
+         * var timingProfileEnable = true;
+         * The waits are also recorded per variable, see OrigenDeviceData.getLockStats().
+         * @return true if lock acquired successfully
+         */
+        protected boolean lock()
+        {
+            return lock(null);
+        }
+
+        /** Acquires lock on a variable, see lock()
+         * @param holder name of the test suite taking the lock, for the lock statistics
+         * @return true if lock acquired successfully
+         */
+        protected boolean lock(String holder)
+        {
+            return lock(holder, System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(timeOut_us));
+        }
+
+        /** Acquires lock on a variable, waiting at most until a deadline, see lock()
+         * @param holder name of the test suite taking the lock, for the lock statistics
+         * @param deadline System.nanoTime() at which to give up
+         * @return true if lock acquired successfully
+         */
+        protected boolean lock(String holder, long deadline)
+        {
+            long start = System.nanoTime();
+            // wait for the site reservations first, they need the lock for their writes
+            long guard = tryLock(siteGuard, true, deadline);
+            long stamp = guard != 0 ? tryLock(lock, true, deadline) : 0;
+            if (stamp == 0)
+            {
+                if (guard != 0)
+                {
+                    siteGuard.unlockWrite(guard);
+                }
+                lockStats.timedOut();
+                return false;
+            }
+            long now = System.nanoTime();
+            lockStats.acquired(holder, now - start, now);
+            guardStamp = guard;
+            writeStamp = stamp;
+            return true;
+        }
+
+        /** Acquires a read or write lock, waiting at most until a deadline
+         * @return the stamp, 0 on timeout
+         */
+        private long tryLock(StampedLock l, boolean write, long deadline)
+        {
+            long stamp = write ? l.tryWriteLock() : l.tryReadLock();
+            long left = deadline - System.nanoTime();
+            if (stamp == 0 && left > 0)
+            {
+                try
+                {
+                    stamp = write ? l.tryWriteLock(left, TimeUnit.NANOSECONDS) : l.tryReadLock(left, TimeUnit.NANOSECONDS);
+                }
+                catch(InterruptedException e)
+                {
+                    throw new UncheckedDTAException("Trying to acquire lock on OrigenDeviceDataVariable " + name + ", but background operation was interrupted", e);
+                }
+            }
+            return stamp;
+        }
+
+        /** Acquires the lock of a single site. Other sites stay free for other holders, the whole variable is
+         * locked for holders of the whole variable until all sites are released
+         * @param site
+         * @param deadline System.nanoTime() at which to give up
+         * @return true if lock acquired successfully
+         */
+        protected boolean lockSite(int site, long deadline)
+        {
+            SiteStripe stripe = stripes.computeIfAbsent(site, s -> new SiteStripe());
+            long start = System.nanoTime();
+            long guard = tryLock(siteGuard, false, deadline);
+            long stamp = guard != 0 ? tryLock(stripe.lock, true, deadline) : 0;
+            if (stamp == 0)
+            {
+                if (guard != 0)
+                {
+                    siteGuard.unlockRead(guard);
+                }
+                lockStats.timedOut();
+                return false;
+            }
+            long now = System.nanoTime();
+            lockStats.siteAcquired(now - start);
+            stripe.heldSince = now;
+            stripe.guardStamp = guard;
+            stripe.writeStamp = stamp;
+            return true;
+        }
+
+        /** Releases the lock of a single site and commits the value as a new version, if it changed */
+        protected void releaseSite(int site)
+        {
+            SiteStripe stripe = stripes.get(site);
+            if (stripe == null || stripe.writeStamp == 0)
+            {
+                return;
+            }
+            long stamp = stripe.writeStamp;
+            long guard = stripe.guardStamp;
+            stripe.writeStamp = 0;
+            writeSite(this::commit);
+            lockStats.siteReleased(System.nanoTime() - stripe.heldSince);
+            stripe.lock.unlockWrite(stamp);
+            siteGuard.unlockRead(guard);
+        }
+
+        /** Changes the value of a site while holding the lock of the site. The value is shared by all sites, so the
+         * change itself is done under the write lock. It is held only for the change, readers see either the value
+         * before or after it
+         * <p>While the whole variable is held, only its holder can get here and the write lock is already taken, the
+         * changes of the threads of the holder are serialized among themselves
+         * @param write changes the value
+         */
+        protected void writeSite(Runnable write)
+        {
+            if (writeStamp != 0)
+            {
+                synchronized (heldWrites)
+                {
+                    write.run();
+                }
+                return;
+            }
+            long stamp = lock.writeLock();
+            try
+            {
+                write.run();
+            }
+            finally
+            {
+                lock.unlockWrite(stamp);
+            }
+            runReleaseWaiters();
+        }
+
+        /** Reads the value of a site, waiting only for the holder of that site, see readShared()
+         * @param site
+         * @param getter reads the value of the site
+         * @return the value
+         */
+        protected <T> T readSite(int site, Supplier<T> getter)
+        {
+            SiteStripe stripe = stripes.get(site);
+            if (stripe != null && stripe.lock.isWriteLocked())
+            {
+                long stamp = tryLock(stripe.lock, false, System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(timeOut_us));
+                if (stamp == 0)
+                {
+                    throw new UncheckedDTAException("Trying to read site " + site + " of DeviceDataVariable " + name + " timed out.");
+                }
+                stripe.lock.unlockRead(stamp);
+            }
+            return readShared(getter);
+        }
+
+        /** Returns the lock statistics of this variable
+         * @return OrigenDeviceDataLockStats
+         */
+        public OrigenDeviceDataLockStats getLockStats()
+        {
+            return lockStats;
+        }
+
+        /** Release the lock on a variable. used internally.
+         * <p>A StampedLock is not owned by a thread, so the background thread can release a lock taken in the foreground
+         */
+        protected void release()
+        {
+            long stamp = writeStamp;
+            if (stamp != 0)
+            {
+                writeStamp = 0;
+                commit();
+                lockStats.released(System.nanoTime());
+                lock.unlockWrite(stamp);
+                siteGuard.unlockWrite(guardStamp);
+                runReleaseWaiters();
+            }
+        }
+
+        /** Gives back the lock on a variable that has not been written, used internally to roll back reserve().
+         * Unlike release(), nothing is committed and no hold time is recorded
+         */
+        protected void rollback()
+        {
+            long stamp = writeStamp;
+            if (stamp != 0)
+            {
+                writeStamp = 0;
+                lockStats.abandoned();
+                lock.unlockWrite(stamp);
+                siteGuard.unlockWrite(guardStamp);
+                runReleaseWaiters();
+            }
+        }
+
+        /** Reads the value as soon as no writer holds the variable, without waiting for it.
+         * <p>If the variable is free, the returned future is completed right away. Otherwise it is completed by a
+         * completion thread once the variable has been released, never by the releasing thread itself. If another
+         * writer takes the variable first, the read waits for that one as well.
+         * <p>If the variable is not released within the timeout, the future is completed exceptionally with an
+         * UncheckedDTAException, like a blocking read would throw. So is an exception of the getter on a consistent read.
+         * @param getter reads the value
+         * @return the value, once available
+         */
+        protected <T> CompletableFuture<T> readWhenReleased(Supplier<T> getter)
+        {
+            CompletableFuture<T> future = new CompletableFuture<T>();
+            Runnable attempt = new Runnable()
+            {
+                @Override public void run()
+                {
+                    if (future.isDone())
+                    {
+                        // timed out meanwhile
+                        return;
+                    }
+                    long stamp = lock.tryOptimisticRead();
+                    if (stamp != 0)
+                    {
+                        try
+                        {
+                            T value = getter.get();
+                            if (lock.validate(stamp))
+                            {
+                                future.complete(value);
+                                return;
+                            }
+                        }
+                        catch (RuntimeException e)
+                        {
+                            if (lock.validate(stamp))
+                            {
+                                future.completeExceptionally(e);
+                                return;
+                            }
+                            // a torn read, retried below
+                        }
+                    }
+                    afterRelease(this);
+                }
+            };
+            attempt.run();
+            if (!future.isDone())
+            {
+                ScheduledFuture<?> timeout = Completions.TIMEOUTS.schedule(() -> Completions.EXECUTOR.execute(() -> future.completeExceptionally(
+                        new UncheckedDTAException("Trying to read DeviceDataVariable " + name + " timed out."))),
+                        timeOut_us, TimeUnit.MICROSECONDS);
+                future.whenComplete((value, e) -> timeout.cancel(false));
+            }
+            return future;
+        }
+
+        /** Runs a task after the next release, or now if the variable is free meanwhile */
+        private void afterRelease(Runnable task)
+        {
+            releaseWaiters.add(task);
+            // the writer may have released before the task was queued
+            if (!lock.isWriteLocked())
+            {
+                runReleaseWaiters();
+            }
+        }
+
+        /** Hands the tasks queued so far to the completion threads. Tasks that find the variable taken again queue
+         * themselves anew */
+        private void runReleaseWaiters()
+        {
+            for (int n = releaseWaiters.size(); n > 0; n--)
+            {
+                Runnable task = releaseWaiters.poll();
+                if (task == null)
+                {
+                    return;
+                }
+                Completions.EXECUTOR.execute(task);
+            }
+        }
+
+        /** Returns the current value, used to commit it. Types that return null here are never committed */
+        protected Object value()
+        {
+            return null;
+        }
+
+        /** Returns a copy of a value, which later changes of the value do not affect. The committed version is such
+         * a copy, so readers of it never see changes of the holder. Types with a value() must override this
+         * @param value : the current value, not null
+         * @return the copy
+         */
+        protected Object copyValue(Object value)
+        {
+            return value;
+        }
 
-        //protected SimplifiedBase reservedBy = null; //might add this to track which suite reserved this, for better error reporting
+        /** Marks the value as changed, so the next commit makes it a new version. Called by the setters, and when the
+         * value is handed to the holder of the variable, who may change it in place
+         */
+        protected void markDirty()
+        {
+            dirty = true;
+        }
 
-        public OrigenDeviceDataTypeBase()
+        /** Makes a copy of the current value the committed version, if it changed. Only called while holding the
+         * write lock
+         */
+        protected void commit()
         {
+            Object current = value();
+            if (current != null && dirty)
+            {
+                dirty = false;
+                committed = copyValue(current);
+                version++;
+            }
         }
-        protected OrigenDeviceDataTypeBase (String _name)
+
+        /** Returns the last committed version, or the current value if nothing has been committed yet */
+        protected Object committedValue()
         {
-            name = _name;
+            // committed is written before version, so a version != 0 guarantees a committed value
+            return version != 0 ? committed : value();
         }
 
-        public void setName(String _name)
+        /** Returns the number of committed versions, 0 if nothing has been committed yet */
+        public long getVersion()
         {
-            name = _name;
+            return version;
         }
 
-        /** Acquires lock on a variable.
-         * <p>This method returns immediately, unless some one else already keeps a lock on this variable,
-         * e.g. the previous testsuite.
-         * In this case it waits until lock is released or a timeout occurs
-         * If a wait happens, this wait is part of the foreground of a testsuite, before release93k().<br>
-         *
-         * In the .prog Test program file,  the timing profile can be enabled to printout information
-         * about any Device Data wait times during program execution.<br>
-         * var timingProfileEnable = true;
-         * @param _msg The message logger
-         * @return true if lock acquired successfully
+        /** Reads the last committed version without waiting for a writer. If nothing has been committed yet,
+         * this waits for the writer like readShared()
+         * @param getter reads the value
+         * @return the value
          */
-        protected boolean lock()
+        @SuppressWarnings("unchecked")
+        protected <T> T readCommitted(Supplier<T> getter)
         {
-            boolean status = false;
-            try
+            // committed is written before version, so a version != 0 guarantees a committed value
+            if (version == 0)
             {
-                status = lock.tryAcquire(timeOut_us, TimeUnit.MICROSECONDS);
+                return readShared(getter);
+            }
+            return (T) committed;
+        }
 
+        /** Waits until no writer holds the variable, i.e. until an in-flight value has been committed.
+         * Returns immediately if no one holds the variable
+         */
+        protected void awaitCommit()
+        {
+            long stamp = 0;
+            try
+            {
+                stamp = lock.tryReadLock(timeOut_us, TimeUnit.MICROSECONDS);
             }
             catch(InterruptedException e)
             {
-                throw new UncheckedDTAException("Trying to acquire lock on OrigenDeviceDataVariable " + name + ", but background operation was interrupted", e);
+                throw new UncheckedDTAException("Waiting for a commit of OrigenDeviceDataVariable " + name + ", but background operation was interrupted", e);
             }
-            return status;
+            if (stamp == 0)
+            {
+                throw new UncheckedDTAException("Waiting for a commit of DeviceDataVariable " + name + " timed out.");
+            }
+            lock.unlockRead(stamp);
         }
 
-        /** Release the lock on a variable. used internally */
-        protected void release()
+        /** Reads the value without holding the variable. Used internally for readers that have not reserved it
+         * <p>The value is read optimistically first. Only if a writer holds the variable or took it during the read,
+         * it is read again under a read lock, waiting for the writer like lock() does.
+         * @param getter reads the value
+         * @return the value
+         */
+        protected <T> T readShared(Supplier<T> getter)
         {
-            if(0 == lock.availablePermits())
+            long stamp = lock.tryOptimisticRead();
+            T value = getter.get();
+            if (stamp != 0 && lock.validate(stamp))
+            {
+                return value;
+            }
+            try
+            {
+                stamp = lock.tryReadLock(timeOut_us, TimeUnit.MICROSECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                throw new UncheckedDTAException("Trying to read OrigenDeviceDataVariable " + name + ", but background operation was interrupted", e);
+            }
+            if (stamp == 0)
             {
-                lock.release();
+                throw new UncheckedDTAException("Trying to read DeviceDataVariable " + name + " timed out.");
+            }
+            try
+            {
+                return getter.get();
+            }
+            finally
+            {
+                lock.unlockRead(stamp);
             }
         }
 
@@ -178,6 +1151,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteDouble _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteDouble get()
@@ -185,6 +1159,42 @@ public class OrigenDeviceData {
             return val;
         }
 
+        public void set(int site, double _val)
+        {
+            if (val == null)
+            {
+                val = new MultiSiteDouble();
+            }
+            val.set(site, _val);
+            markDirty();
+        }
+
+        public double get(int site)
+        {
+            return val.get(site);
+        }
+
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            return copyOf((MultiSiteDouble) value);
+        }
+
+        /** Returns a copy of a value, see copyValue() */
+        static MultiSiteDouble copyOf(MultiSiteDouble value)
+        {
+            MultiSiteDouble copy = new MultiSiteDouble();
+            for (int site : value.getActiveSites())
+            {
+                copy.set(site, value.get(site));
+            }
+            return copy;
+        }
+
 
 
         @Override public String toString()
@@ -214,6 +1224,7 @@ public class OrigenDeviceData {
         public void set(HashMap<String, MultiSiteDouble> _val)
         {
             val = _val;
+            markDirty();
         }
 
         public HashMap<String, MultiSiteDouble> get()
@@ -221,6 +1232,23 @@ public class OrigenDeviceData {
             return val;
         }
 
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            @SuppressWarnings("unchecked")
+            HashMap<String, MultiSiteDouble> map = (HashMap<String, MultiSiteDouble>) value;
+            HashMap<String, MultiSiteDouble> copy = new HashMap<String, MultiSiteDouble>();
+            for (Entry<String, MultiSiteDouble> entry : map.entrySet())
+            {
+                copy.put(entry.getKey(), entry.getValue() == null ? null : OrigenDeviceDataDouble.copyOf(entry.getValue()));
+            }
+            return copy;
+        }
+
         @Override public String toString()
         {
             if (val == null) {
@@ -253,6 +1281,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteString _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteString get()
@@ -260,6 +1289,36 @@ public class OrigenDeviceData {
             return val;
         }
 
+        public void set(int site, String _val)
+        {
+            if (val == null)
+            {
+                val = new MultiSiteString();
+            }
+            val.set(site, _val);
+            markDirty();
+        }
+
+        public String get(int site)
+        {
+            return val.get(site);
+        }
+
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            MultiSiteString copy = new MultiSiteString();
+            for (int site : ((MultiSiteString) value).getActiveSites())
+            {
+                copy.set(site, ((MultiSiteString) value).get(site));
+            }
+            return copy;
+        }
+
 
         @Override public String toString()
         {
@@ -287,6 +1346,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteBoolean _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteBoolean get()
@@ -294,6 +1354,36 @@ public class OrigenDeviceData {
             return val;
         }
 
+        public void set(int site, boolean _val)
+        {
+            if (val == null)
+            {
+                val = new MultiSiteBoolean();
+            }
+            val.set(site, _val);
+            markDirty();
+        }
+
+        public boolean get(int site)
+        {
+            return val.get(site);
+        }
+
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            MultiSiteBoolean copy = new MultiSiteBoolean();
+            for (int site : ((MultiSiteBoolean) value).getActiveSites())
+            {
+                copy.set(site, ((MultiSiteBoolean) value).get(site));
+            }
+            return copy;
+        }
+
         @Override public String toString()
         {
             if (val == null) {
@@ -320,6 +1410,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteLongArray _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteLongArray get()
@@ -327,6 +1418,36 @@ public class OrigenDeviceData {
             return val;
         }
 
+        public void set(int site, long[] _val)
+        {
+            if (val == null)
+            {
+                val = new MultiSiteLongArray();
+            }
+            val.set(site, _val);
+            markDirty();
+        }
+
+        public long[] get(int site)
+        {
+            return val.get(site);
+        }
+
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            MultiSiteLongArray copy = new MultiSiteLongArray();
+            for (int site : ((MultiSiteLongArray) value).getActiveSites())
+            {
+                copy.set(site, ((MultiSiteLongArray) value).get(site).clone());
+            }
+            return copy;
+        }
+
         @Override public String toString()
         {
             if (val == null) {
@@ -360,6 +1481,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteLong _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteLong get()
@@ -367,6 +1489,36 @@ public class OrigenDeviceData {
             return val;
         }
 
+        public void set(int site, long _val)
+        {
+            if (val == null)
+            {
+                val = new MultiSiteLong();
+            }
+            val.set(site, _val);
+            markDirty();
+        }
+
+        public long get(int site)
+        {
+            return val.get(site);
+        }
+
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            MultiSiteLong copy = new MultiSiteLong();
+            for (int site : ((MultiSiteLong) value).getActiveSites())
+            {
+                copy.set(site, ((MultiSiteLong) value).get(site));
+            }
+            return copy;
+        }
+
         @Override public String toString()
         {
             if (val == null) {
@@ -393,6 +1545,7 @@ public class OrigenDeviceData {
         public void set(MultiSiteBitSequence _val)
         {
             val = _val;
+            markDirty();
         }
 
         public MultiSiteBitSequence get()
@@ -400,6 +1553,21 @@ public class OrigenDeviceData {
             return val;
         }
 
+        @Override protected Object value()
+        {
+            return val;
+        }
+
+        @Override protected Object copyValue(Object value)
+        {
+            MultiSiteBitSequence copy = new MultiSiteBitSequence();
+            for (int site : ((MultiSiteBitSequence) value).getActiveSites())
+            {
+                copy.set(site, ((MultiSiteBitSequence) value).get(site));
+            }
+            return copy;
+        }
+
         @Override public String toString()
         {
             if (val == null) {
@@ -416,11 +1584,41 @@ public class OrigenDeviceData {
  */
     public void releaseVariables()
     {
-        for (OrigenVAR varName : reservedDeviceDataVars)
+        long[] reserved = reservedDeviceDataVars;
+        for (int w = 0; w < reserved.length; w++)
+        {
+            // Skips 64 unreserved variables at a time
+            for (long bits = reserved[w]; bits != 0; bits &= bits - 1)
+            {
+                OrigenDeviceDataTypeBase var = varsInUse.slot((w << 6) + Long.numberOfTrailingZeros(bits)).get();
+                if (var != null)
+                {
+                    var.release();
+                }
+            }
+            reserved[w] = 0;
+        }
+        if (!reservedSites.isEmpty())
+        {
+            for (Entry<OrigenVAR, BitSet> entry : reservedSites.entrySet())
+            {
+                releaseSites(entry.getKey(), entry.getValue());
+            }
+            reservedSites.clear();
+        }
+    }
+
+    /** Releases the locks of sites of a variable */
+    private static void releaseSites(OrigenVAR name, BitSet sites)
+    {
+        OrigenDeviceDataTypeBase var = varsInUse.get(name);
+        if (var != null)
         {
-            varsInUse.get(varName).release();
+            for (int site = sites.nextSetBit(0); site >= 0; site = sites.nextSetBit(site + 1))
+            {
+                var.releaseSite(site);
+            }
         }
-        reservedDeviceDataVars.clear();
     }
 
     /** Release lock on a single variable held by this Testsuite/DeviceData instance
@@ -428,6 +1626,12 @@ public class OrigenDeviceData {
      */
     public void releaseVarName(OrigenVAR varName)
     {
+        BitSet sites = reservedSites.remove(varName);
+        if (sites != null)
+        {
+            releaseSites(varName, sites);
+            return;
+        }
         OrigenDeviceDataTypeBase var = varsInUse.get(varName);
         if (var == null) //sanity check. should not happen
         {
@@ -435,7 +1639,7 @@ public class OrigenDeviceData {
         }
         var.release();
 
-        reservedDeviceDataVars.remove(varName);
+        setReserved(varName, false);
     }
 
     /** Acquire access to a variable. This can mean creating them, or just acquiring the lock from an existing variable for both read and write
@@ -467,7 +1671,7 @@ public class OrigenDeviceData {
         // after Release93k
         if (tmRef.hasRelease93kBeenCalled())
         {
-            if (reservedDeviceDataVars.contains(name) == false)
+            if (isReserved(name) == false)
             {
                 throw new UncheckedDTAException("Trying to access DeviceData variable after release93k() without reserving it. Var name: " + name.toString() +
                         "\n DeviceData.reserve(...) must be called for this variable before release93k()");
@@ -483,6 +1687,30 @@ public class OrigenDeviceData {
         }
 
         // Foreground. from reserve or get/set
+        OrigenDeviceDataTypeBase var = getOrCreateVariable(name, allowCreate);
+
+        //Put it into the reserved list. this allows for multiple accesses to this variable in the same foreground code
+        //without locking up
+        //Only the first access may and must acquire the lock
+
+        //it is already in the list, we have the lock. return it.
+        if (isReserved(name)) {
+            return var;
+        }
+
+        //not reserved yet, wait for lock.
+        lockVariable(name, var, System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(var.timeOut_us));
+
+        return var;
+    }
+
+    /** Returns a variable from the storage, creating it if allowed
+     * @param name : DeviceData.VAR
+     * @param allowCreate : boolean
+     * @return DeviceDataTypeBase
+     */
+    private OrigenDeviceDataTypeBase getOrCreateVariable(OrigenVAR name, boolean allowCreate)
+    {
         OrigenDeviceDataTypeBase var = varsInUse.get(name);
         if (var == null)
         {
@@ -490,45 +1718,111 @@ public class OrigenDeviceData {
             {
                 throw new UncheckedDTAException("Trying to read a DeviceData variable before it has been created " + name.toString());
             }
-            //there can not be race condition of multiple threads trying to create the same variable, because creating is only
-            //possible in foreground
-            try {
-                //DeviceDataTypeBase newVar = name.getType().newInstance();
-                Constructor<? extends OrigenDeviceDataTypeBase> constructor = name.getType().getDeclaredConstructor(String.class);
-                constructor.setAccessible(true);
-                var = constructor.newInstance(name.toString());
+            //creating is only possible in foreground, but foregrounds of different suites may run in parallel with
+            //backgrounds. If another thread created the variable meanwhile, that one is used
+            var = createVariable(name);
+            var = varsInUse.putIfAbsent(name, var);
+        }
+        return var;
+    }
 
-            }
-            catch (RuntimeException e)
-            {
-                throw new UncheckedDTAException( "Error creating DeviceData variable " + name.toString() ,e);
-            }
-            catch (Exception e)
+    /** Locks a variable for this testsuite and marks it reserved
+     * @param name : DeviceData.VAR
+     * @param var : the variable of name
+     * @param deadline : System.nanoTime() at which to give up
+     */
+    private void lockVariable(OrigenVAR name, OrigenDeviceDataTypeBase var, long deadline)
+    {
+        if (reservedSites.containsKey(name))
+        {
+            throw new UncheckedDTAException("Testsuite " + tmRef.getContext().getTestSuiteName() + " has reserved single sites of DeviceDataVariable "
+                    + name.toString() + " and cannot lock it as a whole. Reserve all sites with reserve(name, sites) instead.");
+        }
+        if (false == var.lock(tmRef.getContext().getTestSuiteName(), deadline))
+        {
+            String holder = var.getLockStats().getLastTimeoutHolder();
+            throw new UncheckedDTAException("Trying to acquire lock on DeviceDataVariable " + name.toString() + " timed out."
+                    + (holder != null ? " It is held by testsuite " + holder : ""));
+        }
+
+        setReserved(name, true);
+    }
+
+    /** Returns true if this testsuite has reserved a variable
+     * @param name : DeviceData.VAR
+     * @return boolean
+     */
+    private boolean isReserved(OrigenVAR name)
+    {
+        int index = varsInUse.indexOf(name);
+        return (index >>> 6) < reservedDeviceDataVars.length && (reservedDeviceDataVars[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /** Marks a variable as reserved by this testsuite or not
+     * @param name : DeviceData.VAR
+     * @param reserved : boolean
+     */
+    private void setReserved(OrigenVAR name, boolean reserved)
+    {
+        int index = varsInUse.indexOf(name);
+        if ((index >>> 6) >= reservedDeviceDataVars.length)
+        {
+            if (reserved == false)
             {
-                throw new UncheckedDTAException("Error creating DeviceData variable " + name.toString() ,e);
+                return;
             }
-
-            varsInUse.put(name, var);
+            reservedDeviceDataVars = Arrays.copyOf(reservedDeviceDataVars, (index >>> 6) + 1);
         }
+        if (reserved)
+        {
+            reservedDeviceDataVars[index >>> 6] |= 1L << index;
+        }
+        else
+        {
+            reservedDeviceDataVars[index >>> 6] &= ~(1L << index);
+        }
+    }
 
-        //Put it into the reserved list. this allows for multiple accesses to this variable in the same foreground code
-        //without locking up
-        //Only the first access may and must acquire the lock
-
-        //it is already in the list, we have the lock. return it.
-        if (reservedDeviceDataVars.contains(name)) {
-            return var;
+    /** Returns a variable for reading. Unlike getVariableAccess() this does not lock the variable
+     * @param name : DeviceData.VAR
+     * @return DeviceDataTypeBase
+     */
+    private OrigenDeviceDataTypeBase getVariableForRead(OrigenVAR name)
+    {
+        if (tmRef.hasRelease93kBeenCalled() && isReserved(name) == false)
+        {
+            throw new UncheckedDTAException("Trying to access DeviceData variable after release93k() without reserving it. Var name: " + name.toString() +
+                    "\n DeviceData.reserve(...) must be called for this variable before release93k()");
+        }
+        OrigenDeviceDataTypeBase var = varsInUse.get(name);
+        if (var == null)
+        {
+            throw new UncheckedDTAException("Trying to read a DeviceData variable before it has been created " + name.toString());
         }
+        return var;
+    }
 
-        //not reserved yet, wait for lock.
-        if (false == var.lock())
+    /** Reads the value of a variable. A variable reserved by this testsuite is read directly, we hold its lock.
+     * Otherwise it is read without locking it, see OrigenDeviceDataTypeBase.readShared(), or in read committed mode
+     * the last committed version is returned
+     * @param name : DeviceData.VAR
+     * @param var : the variable
+     * @param getter : reads the value
+     * @return the value
+     */
+    private <T> T readVariable(OrigenVAR name, OrigenDeviceDataTypeBase var, Supplier<T> getter)
+    {
+        if (isReserved(name))
         {
-            throw new UncheckedDTAException("Trying to acquire lock on DeviceDataVariable " + name.toString() + " timed out.");
+            // we hold the variable, the value may be changed in place
+            var.markDirty();
+            return getter.get();
         }
-
-        reservedDeviceDataVars.add(name);
-
-        return var;
+        if (readCommitted)
+        {
+            return var.readCommitted(getter);
+        }
+        return var.readShared(getter);
     }
 
     /**
@@ -576,6 +1870,120 @@ public class OrigenDeviceData {
 /****** Public methods to be called from a testmethod ****/
 
 
+    /** Switches the get() methods of this testsuite to read committed mode
+     *
+     * <p>A variable written by a testsuite is committed as a new version when the testsuite releases it: right
+     * after a foreground set(), or at the end of the testsuite when it was reserved. In read committed mode, get()
+     * of a variable this testsuite has not reserved returns the last committed version immediately, even while the
+     * previous testsuite still holds the variable to write it in its background. Without it, get() waits for that
+     * background processing to finish (up to the lock timeout).
+     *
+     * <p>Use awaitCommit() before get() for the variables where the in-flight value is needed:
+     * <pre>{@code
+     * devData.setReadCommitted(true);
+     * MultiSiteDouble limit = devData.getDouble(VAR.vref_limit);   // last committed, never waits
+     * devData.awaitCommit(VAR.vref_trim);                          // waits for the previous suite
+     * MultiSiteDouble trim = devData.getDouble(VAR.vref_trim);
+     * }</pre>
+     *
+     * <p>Variables reserved by this testsuite are always read directly. If a variable has not been committed yet,
+     * get() waits for the writer like without read committed mode.
+     *
+     * @param _readCommitted : boolean
+     */
+    public void setReadCommitted(boolean _readCommitted)
+    {
+        readCommitted = _readCommitted;
+    }
+
+    /** Returns true if get() returns the last committed version, see setReadCommitted()
+     * @return boolean
+     */
+    public boolean isReadCommitted()
+    {
+        return readCommitted;
+    }
+
+    /** Waits until the testsuite currently holding a variable has committed it, so that the next get() returns the
+     * in-flight value. Returns immediately if no testsuite holds the variable
+     * @param name : DeviceData.VAR
+     */
+    public void awaitCommit(OrigenVAR name)
+    {
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
+        if (isReserved(name))
+        {
+            return;
+        }
+        var.awaitCommit();
+    }
+
+    /** Reads a variable without blocking the testsuite. The returned future is completed with the value as soon as
+     * the testsuite holding the variable releases it, or right away if it is free, reserved by this testsuite or,
+     * in read committed mode, has a committed version. Errors like reading a variable that has not been created
+     * are thrown right away.
+     * <p>This allows to start the measurement while the background of the previous testsuite still holds the
+     * variable, and to only wait for the value where it is needed:
+     * <pre>{@code
+     * CompletableFuture<MultiSiteDouble> trim = devData.getAsync(VAR.da_vref_hq_trim, MultiSiteDouble.class);
+     * measurement.execute();
+     * ...
+     * MultiSiteDouble value = trim.join();
+     * }</pre>
+     * A future not completed right away is completed by a shared completion thread after the release, so tasks
+     * chained to it with the non-async methods of CompletableFuture run there, see whenAvailable(). If the variable
+     * is not released within its timeout, the future completes exceptionally with an UncheckedDTAException.
+     * @param name : DeviceData.VAR
+     * @param type : the class of the value, e.g. MultiSiteDouble.class for DeviceDataDouble
+     * @return CompletableFuture of the type of the variable, e.g. MultiSiteDouble for DeviceDataDouble
+     */
+    public <T> CompletableFuture<T> getAsync(OrigenVAR name, Class<T> type)
+    {
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
+        Function<Object, T> checked = value ->
+        {
+            if (value != null && type.isInstance(value) == false)
+            {
+                throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type " + type.getSimpleName() + ".");
+            }
+            return type.cast(value);
+        };
+        if (isReserved(name))
+        {
+            var.markDirty();
+            return CompletableFuture.completedFuture(checked.apply(var.value()));
+        }
+        if (readCommitted && var.getVersion() != 0)
+        {
+            return CompletableFuture.completedFuture(checked.apply(var.committedValue()));
+        }
+        // once released, the committed version is the current value
+        return var.readWhenReleased(() -> checked.apply(var.committedValue()));
+    }
+
+    /** Calls a consumer with the value of a variable once it is available, see getAsync().
+     * The consumer always runs in a completion thread, never in the calling thread nor in the one releasing the
+     * variable, so it may read other variables or take its time
+     * @param name : DeviceData.VAR
+     * @param type : the class of the value, e.g. MultiSiteDouble.class for DeviceDataDouble
+     * @param consumer : takes the value, e.g. MultiSiteDouble for DeviceDataDouble
+     * @return CompletableFuture completed after the consumer ran
+     */
+    public <T> CompletableFuture<Void> whenAvailable(OrigenVAR name, Class<T> type, Consumer<T> consumer)
+    {
+        return getAsync(name, type).thenAcceptAsync(consumer, OrigenDeviceDataTypeBase.Completions.EXECUTOR);
+    }
+
+    /** Returns the number of committed versions of a variable, e.g. to see if it changed since the last read
+     * @param name : DeviceData.VAR
+     * @return long, 0 if no value has been committed yet
+     */
+    public long getVersion(OrigenVAR name)
+    {
+        return getVariableForRead(name).getVersion();
+    }
+
+
     /** Marking Variables as reserved
      *
      * <p>Must be called before release93k()
@@ -592,6 +2000,12 @@ public class OrigenDeviceData {
      * devData.reserve(VAR.da_vref_hq_trim, VAR.da_vref_lq_trim);
      * }</pre>
      *
+     * <p>Reserving is all or nothing: the variables are locked in one global order (their registry index), whatever
+     * order they are passed in, so two suites reserving the same variables cannot wait for each other in a cycle.
+     * All locks share one deadline, the timeout of a single lock. If it passes, the variables locked so far by
+     * this call are released again and an exception is thrown.
+     * To profit from this, reserve all variables a suite writes in one call, before the first set().
+     *
      * @param _variableNames : DeviceData.VAR...
      */
     public void reserve(OrigenVAR... _variableNames)
@@ -600,15 +2014,258 @@ public class OrigenDeviceData {
         {
             throw new UncheckedDTAException("reserve() must be called before release93k() in testsuite " + tmRef.getContext().getTestSuiteName());
         }
+        // Registry indices of the variables not reserved yet, in lock order without duplicates
+        int[] indices = new int[_variableNames.length];
+        int count = 0;
         for (OrigenVAR varName : _variableNames)
         {
-            if (reservedDeviceDataVars.contains(varName))
+            if (!isReserved(varName))
+            {
+                indices[count++] = varsInUse.indexOf(varName);
+            }
+        }
+        Arrays.sort(indices, 0, count);
+
+        OrigenVAR[] names = new OrigenVAR[count];
+        OrigenDeviceDataTypeBase[] vars = new OrigenDeviceDataTypeBase[count];
+        long start = System.nanoTime();
+        long deadline = 0;
+        int locked = 0;
+        try
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (i > 0 && indices[i] == indices[i - 1])
+                {
+                    continue;
+                }
+                OrigenVAR varName = varsInUse.slot(indices[i]).name;
+                OrigenDeviceDataTypeBase var = getOrCreateVariable(varName, true);
+                if (locked == 0)
+                {
+                    deadline = start + TimeUnit.MICROSECONDS.toNanos(var.timeOut_us);
+                }
+                lockVariable(varName, var, deadline);
+                names[locked] = varName;
+                vars[locked++] = var;
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // roll back, nothing has been written to the variables locked so far
+            for (int i = 0; i < locked; i++)
+            {
+                vars[i].rollback();
+                setReserved(names[i], false);
+            }
+            throw e;
+        }
+    }
+    /** Marking single sites of a variable as reserved
+     *
+     * <p>Like reserve(), but only the given sites are locked. Other testsuites, or other background workers of
+     * the same variable, can hold the other sites at the same time. Use it when the background works per site, e.g.
+     * one worker per site decoding captures and writing trims with set(name, site, value):
+     * <pre>{@code
+     * devData.reserve(VAR.da_vref_hq_trim, context.getActiveSites());
+     * release93k();
+     * // per site worker
+     * devData.set(VAR.da_vref_hq_trim, site, trim);
+     * }</pre>
+     * A reader of a single site, e.g. getDouble(name, site), only waits for the holder of that site. Locking the
+     * whole variable waits until all sites are released, and the other way round.
+     * The sites are locked in ascending order with one deadline, if it passes the sites locked so far are released.
+     * A variable reserved as a whole is not reserved again per site.
+     * <p>Supported for the types with a value per site: Double, Long, String, Boolean and LongArray
+     *
+     * @param name : DeviceData.VAR
+     * @param sites : the sites to reserve
+     */
+    public void reserve(OrigenVAR name, int[] sites)
+    {
+        if (tmRef.hasRelease93kBeenCalled())
+        {
+            throw new UncheckedDTAException("reserve() must be called before release93k() in testsuite " + tmRef.getContext().getTestSuiteName());
+        }
+        if (isReserved(name))
+        {
+            return;
+        }
+        OrigenDeviceDataTypeBase var = getOrCreateVariable(name, true);
+        BitSet held = reservedSites.get(name);
+        BitSet locked = new BitSet();
+        int[] order = sites.clone();
+        Arrays.sort(order);
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(var.timeOut_us);
+        for (int site : order)
+        {
+            if (locked.get(site) || (held != null && held.get(site)))
             {
                 continue;
             }
-            getVariableAccess(varName, true);
+            if (false == var.lockSite(site, deadline))
+            {
+                releaseSites(name, locked);
+                throw new UncheckedDTAException("Trying to acquire lock on site " + site + " of DeviceDataVariable " + name.toString() + " timed out.");
+            }
+            locked.set(site);
+        }
+        if (held == null)
+        {
+            reservedSites.put(name, locked);
+        }
+        else
+        {
+            held.or(locked);
+        }
+    }
+
+    /** Returns true if this testsuite has reserved a site of a variable with reserve(name, sites)
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return boolean
+     */
+    private boolean isSiteReserved(OrigenVAR name, int site)
+    {
+        BitSet sites = reservedSites.get(name);
+        return sites != null && sites.get(site);
+    }
+
+    /** Writes the value of one site. Only the lock of the site is needed, see reserve(name, sites).
+     * If neither the variable nor the site is reserved, the site is locked in the foreground for this write only
+     * @param name : DeviceData.VAR
+     * @param site
+     * @param type : the expected variable class
+     * @param writer : sets the value of the site
+     */
+    private <V extends OrigenDeviceDataTypeBase> void setOnSite(OrigenVAR name, int site, Class<V> type, Consumer<V> writer)
+    {
+        boolean siteReserved = isSiteReserved(name, site);
+        if (tmRef.hasRelease93kBeenCalled() && isReserved(name) == false && siteReserved == false)
+        {
+            throw new UncheckedDTAException("Trying to access DeviceData variable after release93k() without reserving it. Var name: " + name.toString() +
+                    " site: " + site + "\n DeviceData.reserve(...) must be called for this variable before release93k()");
+        }
+        OrigenDeviceDataTypeBase var = getOrCreateVariable(name, true);
+        if (type.isInstance(var) == false)
+        {
+            throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type " + type.getSimpleName() + ".");
+        }
+        V typed = type.cast(var);
+        if (isReserved(name) || siteReserved)
+        {
+            // per-site workers of the holder may write concurrently
+            var.writeSite(() -> writer.accept(typed));
+            return;
+        }
+        if (false == var.lockSite(site, System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(var.timeOut_us)))
+        {
+            throw new UncheckedDTAException("Trying to acquire lock on site " + site + " of DeviceDataVariable " + name.toString() + " timed out.");
+        }
+        try
+        {
+            var.writeSite(() -> writer.accept(typed));
+        }
+        finally
+        {
+            var.releaseSite(site);
+        }
+    }
+
+    /** Reads the value of one site, waiting only for the holder of that site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @param type : the expected variable class
+     * @param getter : reads the value of the site
+     * @return the value
+     */
+    private <V extends OrigenDeviceDataTypeBase, T> T getOnSite(OrigenVAR name, int site, Class<V> type, Function<V, T> getter)
+    {
+        boolean siteReserved = isSiteReserved(name, site);
+        if (tmRef.hasRelease93kBeenCalled() && isReserved(name) == false && siteReserved == false)
+        {
+            throw new UncheckedDTAException("Trying to access DeviceData variable after release93k() without reserving it. Var name: " + name.toString() +
+                    " site: " + site + "\n DeviceData.reserve(...) must be called for this variable before release93k()");
+        }
+        OrigenDeviceDataTypeBase var = varsInUse.get(name);
+        if (var == null)
+        {
+            throw new UncheckedDTAException("Trying to read a DeviceData variable before it has been created " + name.toString());
+        }
+        if (type.isInstance(var) == false)
+        {
+            throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type " + type.getSimpleName() + ".");
+        }
+        V typed = type.cast(var);
+        Supplier<T> read = () ->
+        {
+            if (typed.value() == null)
+            {
+                throw new UncheckedDTAException("Trying to read a DeviceData variable before it has been set " + name.toString());
+            }
+            return getter.apply(typed);
+        };
+        if (isReserved(name))
+        {
+            return read.get();
+        }
+        if (siteReserved)
+        {
+            return var.readShared(read);
         }
+        return var.readSite(site, read);
+    }
+
+    /** Set new Value of one site. If this is first time use, creates the variable. See reserve(name, sites)
+     * @param name : DeviceData.VAR name
+     * @param site
+     * @param value : double
+     */
+    public void set(OrigenVAR name, int site, double value)
+    {
+        setOnSite(name, site, OrigenDeviceDataDouble.class, var -> var.set(site, value));
+    }
+
+    /** Set new Value of one site. If this is first time use, creates the variable. See reserve(name, sites)
+     * @param name : DeviceData.VAR name
+     * @param site
+     * @param value : long
+     */
+    public void set(OrigenVAR name, int site, long value)
+    {
+        setOnSite(name, site, OrigenDeviceDataLong.class, var -> var.set(site, value));
+    }
+
+    /** Set new Value of one site. If this is first time use, creates the variable. See reserve(name, sites)
+     * @param name : DeviceData.VAR name
+     * @param site
+     * @param value : String
+     */
+    public void set(OrigenVAR name, int site, String value)
+    {
+        setOnSite(name, site, OrigenDeviceDataString.class, var -> var.set(site, value));
+    }
+
+    /** Set new Value of one site. If this is first time use, creates the variable. See reserve(name, sites)
+     * @param name : DeviceData.VAR name
+     * @param site
+     * @param value : boolean
+     */
+    public void set(OrigenVAR name, int site, boolean value)
+    {
+        setOnSite(name, site, OrigenDeviceDataBoolean.class, var -> var.set(site, value));
+    }
+
+    /** Set new Value of one site. If this is first time use, creates the variable. See reserve(name, sites)
+     * @param name : DeviceData.VAR name
+     * @param site
+     * @param value : long[]
+     */
+    public void set(OrigenVAR name, int site, long[] value)
+    {
+        setOnSite(name, site, OrigenDeviceDataLongArray.class, var -> var.set(site, value));
     }
+
     /** Add new Value to a List Variable. If this is first time use, creates the variable
      * @param name : DeviceData.VAR name
      * @param value : HashMap String,MultiSiteDouble
@@ -618,14 +2275,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
         if ((var instanceof OrigenDeviceDataMapDouble) == false)
@@ -649,14 +2306,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -681,14 +2338,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -712,14 +2369,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -743,14 +2400,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -774,14 +2431,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -805,14 +2462,14 @@ public class OrigenDeviceData {
         /** a set() is only valid if
          * - we are in the foreground and no other testsuite has a lock on this variable.
          *      a variation of this is that the variable has not been created yet, we create it here and lock it.
-         * - we are in the background and the variable is in the reservedDeviceDataVars list for this test suite
+         * - we are in the background and the variable is reserved by this test suite
          */
 
         /** Check if Var is Reserved already by a reserve call
          * If yes, skip attempt to release variable in foreground.
          */
         boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
+        if (isReserved(name)) { isAlreadyReserved = true; }
 
 
         OrigenDeviceDataTypeBase var = getVariableAccess(name, true);
@@ -833,27 +2490,13 @@ public class OrigenDeviceData {
      */
     public MultiSiteDouble getDouble(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataDouble) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataDouble.");
         }
-        MultiSiteDouble ret = ((OrigenDeviceDataDouble)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
-
 
+        return readVariable(name, var, ((OrigenDeviceDataDouble)var)::get);
     }
 
     /** Get MultiSiteString from global storage
@@ -862,25 +2505,13 @@ public class OrigenDeviceData {
      */
     public MultiSiteString getString(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataString) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataString.");
         }
 
-        MultiSiteString ret = ((OrigenDeviceDataString)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
+        return readVariable(name, var, ((OrigenDeviceDataString)var)::get);
     }
 
     /** Get MultiSiteBoolean from global storage
@@ -889,25 +2520,13 @@ public class OrigenDeviceData {
      */
     public MultiSiteBoolean getBoolean(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataBoolean) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataBoolean.");
         }
 
-        MultiSiteBoolean ret = ((OrigenDeviceDataBoolean)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
+        return readVariable(name, var, ((OrigenDeviceDataBoolean)var)::get);
     }
 
     /** Get Map of MultiSiteDouble from global storage
@@ -916,25 +2535,13 @@ public class OrigenDeviceData {
      */
     public HashMap<String, MultiSiteDouble> getMapOfDouble(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataMapDouble) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataMapDouble.");
         }
 
-        HashMap<String, MultiSiteDouble> ret = ((OrigenDeviceDataMapDouble)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
+        return readVariable(name, var, ((OrigenDeviceDataMapDouble)var)::get);
     }
 
     /** Get MultiSiteLongArray from global storage
@@ -943,25 +2550,13 @@ public class OrigenDeviceData {
      */
     public MultiSiteLongArray getLongArray(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataLongArray) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataLongArray.");
         }
 
-        MultiSiteLongArray ret = ((OrigenDeviceDataLongArray)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
+        return readVariable(name, var, ((OrigenDeviceDataLongArray)var)::get);
     }
 
     /** Get MultiSiteLong from global storage
@@ -970,25 +2565,13 @@ public class OrigenDeviceData {
      */
     public MultiSiteLong getLong(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataLong) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataLong.");
         }
 
-        MultiSiteLong ret = ((OrigenDeviceDataLong)var).get();
-
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
-
-        return ret;
+        return readVariable(name, var, ((OrigenDeviceDataLong)var)::get);
     }
 
     /** Get MultiSiteBitSequence from global storage
@@ -997,25 +2580,63 @@ public class OrigenDeviceData {
      */
     public MultiSiteBitSequence getBitSequence(OrigenVAR name)
     {
-        /** Check if Var is Reserved already by a reserve call
-         * If yes, skip attempt to release variable in foreground.
-         */
-        boolean isAlreadyReserved = false;
-        if (reservedDeviceDataVars.contains(name)) { isAlreadyReserved = true; }
-
-        OrigenDeviceDataTypeBase var = getVariableAccess(name, false);
+        OrigenDeviceDataTypeBase var = getVariableForRead(name);
         if ((var instanceof OrigenDeviceDataBitSequence) == false)
         {
             throw new UncheckedDTAException("DeviceData Variable " + name.toString() + " is not of type DeviceDataBitSequence.");
         }
 
-        MultiSiteBitSequence ret = ((OrigenDeviceDataBitSequence)var).get();
+        return readVariable(name, var, ((OrigenDeviceDataBitSequence)var)::get);
+    }
 
-        if (isAlreadyReserved == false) {
-            releaseVariableInForeground(name);
-        }
+    /** Get the double of one site from global storage. Waits only for the holder of this site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return double
+     */
+    public double getDouble(OrigenVAR name, int site)
+    {
+        return getOnSite(name, site, OrigenDeviceDataDouble.class, var -> var.get(site));
+    }
+
+    /** Get the long of one site from global storage. Waits only for the holder of this site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return long
+     */
+    public long getLong(OrigenVAR name, int site)
+    {
+        return getOnSite(name, site, OrigenDeviceDataLong.class, var -> var.get(site));
+    }
+
+    /** Get the String of one site from global storage. Waits only for the holder of this site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return String
+     */
+    public String getString(OrigenVAR name, int site)
+    {
+        return getOnSite(name, site, OrigenDeviceDataString.class, var -> var.get(site));
+    }
 
-        return ret;
+    /** Get the boolean of one site from global storage. Waits only for the holder of this site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return boolean
+     */
+    public boolean getBoolean(OrigenVAR name, int site)
+    {
+        return getOnSite(name, site, OrigenDeviceDataBoolean.class, var -> var.get(site));
+    }
+
+    /** Get the long[] of one site from global storage. Waits only for the holder of this site
+     * @param name : DeviceData.VAR
+     * @param site
+     * @return long[]
+     */
+    public long[] getLongArray(OrigenVAR name, int site)
+    {
+        return getOnSite(name, site, OrigenDeviceDataLongArray.class, var -> var.get(site));
     }
 
 }
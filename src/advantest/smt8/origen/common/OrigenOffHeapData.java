@@ -0,0 +1,52 @@
+package origen.common;
+
+/**
+ * OrigenData that keeps the bulk of its data outside the garbage collected heap
+ *
+ * <p>The dense pages, which hold the words of (nearly) full sectors and so the bulk of a flash
+ * image, store their words in direct memory. Sparse data and the bookkeeping stay on the heap. The
+ * get/set API is the one of OrigenData.
+ *
+ * <p>clearAllData() keeps the direct memory and reuses it for the next image, so one instance can
+ * be loaded again on every touchdown without allocating. Call close() when the image is not needed
+ * anymore; the instance must not be used afterwards.
+ * Pages still referred to by a snapshot() are reused once the snapshot is released or garbage
+ * collected.
+ *
+ * <p>Usage example:
+ *
+ * <pre>{@code
+ * try (OrigenOffHeapData mem = new OrigenOffHeapData(32, 32)) {
+ *   new OrigenDataImage(mem).load(Paths.get("flash.hex"));
+ *   ...
+ * }
+ * }</pre>
+ */
+public class OrigenOffHeapData extends OrigenData implements AutoCloseable {
+  /**
+   * Constructor, initialized empty address and data arrays for data words of wordWidth bits
+   *
+   * @param wordWidth number of bits per data word, >= 1
+   * @param partWidth number of bits per part (long) of the data, 1 to 64
+   */
+  public OrigenOffHeapData(int wordWidth, int partWidth) {
+    super(wordWidth, partWidth, 0, true);
+  }
+
+  /** Returns the number of bytes of direct memory held, in use or free for reuse */
+  public long getOffHeapCapacity() {
+    return pagePool().capacityBytes();
+  }
+
+  /** Returns the number of bytes of direct memory in use by the current data */
+  public long getOffHeapUsed() {
+    return pagePool().usedBytes();
+  }
+
+  /** Drops all data and the direct memory */
+  @Override
+  public void close() {
+    clearAllData();
+    pagePool().close();
+  }
+}
@@ -0,0 +1,61 @@
+package origen.common;
+
+import java.nio.LongBuffer;
+
+/**
+ * Dense page of an OrigenDataLayer whose words live in direct memory
+ *
+ * <p>The words are a slot of a slab owned by an OrigenPagePool. Only the presence bitmap and this
+ * object itself are on the heap.
+ */
+class OrigenOffHeapPage extends OrigenDataPage {
+  /** Slot number in the pool */
+  final int slot;
+  private final LongBuffer words;
+  private final OrigenPagePool pool;
+
+  /**
+   * Constructor, creates an empty page on a pool slot
+   *
+   * @param format
+   * @param slot
+   * @param words the direct memory of the slot
+   * @param pool the pool owning the slot
+   */
+  OrigenOffHeapPage(OrigenWordFormat format, int slot, LongBuffer words, OrigenPagePool pool) {
+    super(format, false);
+    this.slot = slot;
+    this.words = words;
+    this.pool = pool;
+  }
+
+  @Override
+  OrigenDataPage copy() {
+    OrigenOffHeapPage copy = pool.allocate();
+    for (int i = 0; i < words.limit(); i++) {
+      copy.words.put(i, words.get(i));
+    }
+    copy.copyPresence(this);
+    return copy;
+  }
+
+  @Override
+  void read(int offset, long[] limbs) {
+    format.read(words, offset, limbs);
+  }
+
+  @Override
+  void write(int offset, long[] limbs) {
+    format.write(words, offset, limbs);
+  }
+
+  @Override
+  void copyFrom(long[] src, int srcIndex, int offset) {
+    format.copy(src, srcIndex, words, offset);
+  }
+
+  @Override
+  void copyTo(int offset, long[] dst, int dstIndex) {
+    format.copy(words, offset, dst, dstIndex);
+  }
+}
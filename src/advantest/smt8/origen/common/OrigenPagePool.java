@@ -0,0 +1,146 @@
+package origen.common;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Pool of off-heap dense pages for OrigenData
+ *
+ * <p>Direct memory is allocated in slabs of SLAB_PAGES page slots. A freed page goes back on a free
+ * list and its slot is handed out again by the next allocate(), so clearing and reloading an image
+ * (e.g. on every touchdown) does not allocate direct memory again. Direct memory is only given back
+ * to the system when the pool is closed and the slabs are garbage collected.
+ *
+ * <p>A page stays in use while a snapshot refers to it. Snapshots hand their pages back when they are
+ * released, or when the pool finds them garbage collected on a later allocate(). The pool is
+ * thread-safe, as snapshots can be released from other threads than the one writing the data.
+ */
+class OrigenPagePool {
+  static final int SLAB_PAGES = 64;
+
+  private final OrigenWordFormat format;
+  private final int slotLongs;
+  private ByteBuffer[] slabs = new ByteBuffer[0];
+  private int[] free = new int[0];
+  private int freeSize;
+  private int numSlots;
+  private boolean closed;
+  /** Snapshots not released yet, kept reachable until they are garbage collected */
+  private final HashSet<SnapshotRef> snapshots = new HashSet<SnapshotRef>();
+  private final ReferenceQueue<OrigenData> collected = new ReferenceQueue<OrigenData>();
+
+  /**
+   * Constructor, no direct memory is allocated until the first page is needed
+   *
+   * @param format
+   */
+  OrigenPagePool(OrigenWordFormat format) {
+    this.format = format;
+    this.slotLongs = format.longsFor(OrigenDataLayer.PAGE_SIZE);
+  }
+
+  /** Returns an empty page, taking a free slot or adding a slab when there is none */
+  OrigenOffHeapPage allocate() {
+    releaseCollected();
+    return take();
+  }
+
+  /**
+   * Hands the pages of a snapshot back once it has been garbage collected, unless it has been
+   * released before
+   *
+   * @param snapshot
+   * @param release releases the layers of the snapshot, must not refer to the snapshot itself
+   */
+  void track(OrigenData snapshot, Runnable release) {
+    releaseCollected();
+    synchronized (this) {
+      snapshots.add(new SnapshotRef(snapshot, release, collected));
+    }
+  }
+
+  /** Releases the layers of the snapshots that have been garbage collected since the last call */
+  void releaseCollected() {
+    SnapshotRef ref;
+    while ((ref = (SnapshotRef) collected.poll()) != null) {
+      synchronized (this) {
+        snapshots.remove(ref);
+      }
+      ref.release.run();
+    }
+  }
+
+  private synchronized OrigenOffHeapPage take() {
+    if (closed) {
+      throw new Error("OrigenData off-heap storage has been closed");
+    }
+    if (freeSize == 0) {
+      addSlab();
+    }
+    int slot = free[--freeSize];
+    ByteBuffer slab = slabs[slot / SLAB_PAGES].duplicate();
+    int start = (slot % SLAB_PAGES) * slotLongs * 8;
+    slab.position(start);
+    slab.limit(start + slotLongs * 8);
+    LongBuffer words = slab.slice().order(ByteOrder.nativeOrder()).asLongBuffer();
+    return new OrigenOffHeapPage(format, slot, words, this);
+  }
+
+  /**
+   * Returns the slot of a page to the free list, the page must not be used afterwards. Called by the
+   * last layer referring to the page
+   *
+   * @param page
+   */
+  synchronized void free(OrigenOffHeapPage page) {
+    if (closed) {
+      return;
+    }
+    free[freeSize++] = page.slot;
+  }
+
+  /** Returns the number of bytes of direct memory held by the pool */
+  synchronized long capacityBytes() {
+    return (long) numSlots * slotLongs * 8;
+  }
+
+  /** Returns the number of bytes of direct memory in use by pages */
+  synchronized long usedBytes() {
+    return (long) (numSlots - freeSize) * slotLongs * 8;
+  }
+
+  /** Drops all slabs, allocate() throws an error afterwards */
+  synchronized void close() {
+    closed = true;
+    slabs = new ByteBuffer[0];
+    free = new int[0];
+    freeSize = 0;
+    numSlots = 0;
+  }
+
+  /** Reference to a snapshot, enqueued when the snapshot has been garbage collected */
+  private static class SnapshotRef extends PhantomReference<OrigenData> {
+    final Runnable release;
+
+    SnapshotRef(OrigenData snapshot, Runnable release, ReferenceQueue<OrigenData> queue) {
+      super(snapshot, queue);
+      this.release = release;
+    }
+  }
+
+  private void addSlab() {
+    slabs = Arrays.copyOf(slabs, slabs.length + 1);
+    slabs[slabs.length - 1] = ByteBuffer.allocateDirect(SLAB_PAGES * slotLongs * 8);
+    free = Arrays.copyOf(free, numSlots + SLAB_PAGES);
+    // Hand out the lowest slot first
+    for (int i = SLAB_PAGES - 1; i >= 0; i--) {
+      free[freeSize++] = numSlots + i;
+    }
+    numSlots += SLAB_PAGES;
+  }
+}
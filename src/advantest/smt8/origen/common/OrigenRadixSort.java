@@ -0,0 +1,91 @@
+package origen.common;
+
+import java.util.Arrays;
+
+/**
+ * Primitive LSD radix sort of long keys that carries an int array along (co-sort)
+ *
+ * <p>The keys are sorted 8 bits at a time. Byte positions that are the same for all keys are
+ * skipped, so 32-bit addresses only take 4 passes. Nothing is boxed, the only allocation is one
+ * scratch copy of the keys and of the carried array.
+ */
+final class OrigenRadixSort {
+  private static final int INSERTION_SORT_LIMIT = 64;
+
+  private OrigenRadixSort() {}
+
+  /**
+   * Sorts keys[0..n) ascending (as signed longs) and applies the same reordering to carried[0..n)
+   *
+   * @param keys
+   * @param carried
+   * @param n
+   */
+  static void sort(long[] keys, int[] carried, int n) {
+    if (n < INSERTION_SORT_LIMIT) {
+      insertionSort(keys, carried, n);
+      return;
+    }
+    // Flipping the sign bit makes the unsigned byte order match the signed order
+    long or = 0;
+    long and = -1;
+    for (int i = 0; i < n; i++) {
+      long u = keys[i] ^ Long.MIN_VALUE;
+      or |= u;
+      and &= u;
+    }
+    long varying = or & ~and;
+
+    long[] srcKeys = keys;
+    int[] srcCarried = carried;
+    long[] dstKeys = new long[n];
+    int[] dstCarried = new int[n];
+    int[] count = new int[257];
+    for (int shift = 0; shift < 64; shift += 8) {
+      if (((varying >>> shift) & 0xFF) == 0) {
+        continue;
+      }
+      Arrays.fill(count, 0);
+      for (int i = 0; i < n; i++) {
+        count[digit(srcKeys[i], shift) + 1]++;
+      }
+      for (int d = 0; d < 256; d++) {
+        count[d + 1] += count[d];
+      }
+      for (int i = 0; i < n; i++) {
+        int pos = count[digit(srcKeys[i], shift)]++;
+        dstKeys[pos] = srcKeys[i];
+        dstCarried[pos] = srcCarried[i];
+      }
+      long[] k = srcKeys;
+      srcKeys = dstKeys;
+      dstKeys = k;
+      int[] c = srcCarried;
+      srcCarried = dstCarried;
+      dstCarried = c;
+    }
+    if (srcKeys != keys) {
+      System.arraycopy(srcKeys, 0, keys, 0, n);
+      System.arraycopy(srcCarried, 0, carried, 0, n);
+    }
+  }
+
+  private static int digit(long key, int shift) {
+    return (int) (((key ^ Long.MIN_VALUE) >>> shift) & 0xFF);
+  }
+
+  private static void insertionSort(long[] keys, int[] carried, int n) {
+    for (int i = 1; i < n; i++) {
+      long k = keys[i];
+      int c = carried[i];
+      int j = i - 1;
+      while (j >= 0 && keys[j] > k) {
+        keys[j + 1] = keys[j];
+        carried[j + 1] = carried[j];
+        j--;
+      }
+      keys[j + 1] = k;
+      carried[j + 1] = c;
+    }
+  }
+}
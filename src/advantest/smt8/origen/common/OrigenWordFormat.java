@@ -0,0 +1,271 @@
+package origen.common;
+
+import java.nio.LongBuffer;
+
+/**
+ * Layout of one data word in OrigenData
+ *
+ * <p>A word is wordWidth bits wide and is passed around as an array of limbs (long values) of
+ * limbWidth bits each, least significant limb first. The last limb holds the remaining bits. For
+ * example C28ESF3 has 136-bit words passed as 4 limbs of 34 bits, C402T has 32-bit words passed as
+ * 1 limb.
+ *
+ * <p>In storage the words are packed back to back in a long[], so word i starts at bit i *
+ * wordWidth. No bits are wasted on unused limb bits and there is no object per word. The same
+ * layout is used for off-heap storage in a LongBuffer.
+ */
+final class OrigenWordFormat {
+  final int wordWidth;
+  final int limbWidth;
+  final int numLimbs;
+
+  /**
+   * Constructor
+   *
+   * @param wordWidth number of bits per word, >= 1
+   * @param limbWidth number of bits per limb, 1..64
+   */
+  OrigenWordFormat(int wordWidth, int limbWidth) {
+    if (wordWidth < 1) {
+      throw new Error("Word width must be at least 1 bit, got: " + wordWidth);
+    }
+    if (limbWidth < 1 || limbWidth > 64) {
+      throw new Error("Limb width must be 1 to 64 bits, got: " + limbWidth);
+    }
+    this.wordWidth = wordWidth;
+    this.limbWidth = limbWidth;
+    this.numLimbs = (wordWidth + limbWidth - 1) / limbWidth;
+  }
+
+  /**
+   * Returns the number of bits of a limb, only the last limb can be narrower than limbWidth
+   *
+   * @param limb
+   * @return
+   */
+  int widthOfLimb(int limb) {
+    return Math.min(limbWidth, wordWidth - limb * limbWidth);
+  }
+
+  /**
+   * Returns the number of longs needed to store the given number of words
+   *
+   * @param words
+   * @return
+   */
+  int longsFor(int words) {
+    return (int) (((long) words * wordWidth + 63) >>> 6);
+  }
+
+  /**
+   * Throws an error when the limbs do not fit in one word
+   *
+   * @param limbs
+   */
+  void checkLimbs(long[] limbs) {
+    if (limbs.length > numLimbs) {
+      throw new Error(
+          "Data has "
+              + limbs.length
+              + " parts, but a "
+              + wordWidth
+              + " bit word only holds "
+              + numLimbs
+              + " parts of "
+              + limbWidth
+              + " bits");
+    }
+  }
+
+  /**
+   * Packs the limbs into word index of the storage. Missing limbs are stored as 0, limb bits above
+   * the limb width are dropped. The limbs must pass checkLimbs()
+   *
+   * @param storage
+   * @param index
+   * @param limbs
+   */
+  void write(long[] storage, int index, long[] limbs) {
+    long bit = (long) index * wordWidth;
+    for (int i = 0; i < numLimbs; i++) {
+      int width = widthOfLimb(i);
+      setBits(storage, bit, width, i < limbs.length ? limbs[i] : 0);
+      bit += width;
+    }
+  }
+
+  /**
+   * Unpacks word index of the storage into the first numLimbs elements of limbs
+   *
+   * @param storage
+   * @param index
+   * @param limbs
+   */
+  void read(long[] storage, int index, long[] limbs) {
+    long bit = (long) index * wordWidth;
+    for (int i = 0; i < numLimbs; i++) {
+      int width = widthOfLimb(i);
+      limbs[i] = getBits(storage, bit, width);
+      bit += width;
+    }
+  }
+
+  /**
+   * Copies one word from one storage to another
+   *
+   * @param src
+   * @param srcIndex
+   * @param dst
+   * @param dstIndex
+   */
+  void copy(long[] src, int srcIndex, long[] dst, int dstIndex) {
+    long srcBit = (long) srcIndex * wordWidth;
+    long dstBit = (long) dstIndex * wordWidth;
+    for (int done = 0; done < wordWidth; done += 64) {
+      int width = Math.min(64, wordWidth - done);
+      setBits(dst, dstBit + done, width, getBits(src, srcBit + done, width));
+    }
+  }
+
+  /**
+   * Packs the limbs into word index of an off-heap storage, see write(long[], int, long[])
+   *
+   * @param storage
+   * @param index
+   * @param limbs
+   */
+  void write(LongBuffer storage, int index, long[] limbs) {
+    long bit = (long) index * wordWidth;
+    for (int i = 0; i < numLimbs; i++) {
+      int width = widthOfLimb(i);
+      setBits(storage, bit, width, i < limbs.length ? limbs[i] : 0);
+      bit += width;
+    }
+  }
+
+  /**
+   * Unpacks word index of an off-heap storage into the first numLimbs elements of limbs
+   *
+   * @param storage
+   * @param index
+   * @param limbs
+   */
+  void read(LongBuffer storage, int index, long[] limbs) {
+    long bit = (long) index * wordWidth;
+    for (int i = 0; i < numLimbs; i++) {
+      int width = widthOfLimb(i);
+      limbs[i] = getBits(storage, bit, width);
+      bit += width;
+    }
+  }
+
+  /**
+   * Copies one word from heap storage to off-heap storage
+   *
+   * @param src
+   * @param srcIndex
+   * @param dst
+   * @param dstIndex
+   */
+  void copy(long[] src, int srcIndex, LongBuffer dst, int dstIndex) {
+    long srcBit = (long) srcIndex * wordWidth;
+    long dstBit = (long) dstIndex * wordWidth;
+    for (int done = 0; done < wordWidth; done += 64) {
+      int width = Math.min(64, wordWidth - done);
+      setBits(dst, dstBit + done, width, getBits(src, srcBit + done, width));
+    }
+  }
+
+  /**
+   * Copies one word from off-heap storage to heap storage
+   *
+   * @param src
+   * @param srcIndex
+   * @param dst
+   * @param dstIndex
+   */
+  void copy(LongBuffer src, int srcIndex, long[] dst, int dstIndex) {
+    long srcBit = (long) srcIndex * wordWidth;
+    long dstBit = (long) dstIndex * wordWidth;
+    for (int done = 0; done < wordWidth; done += 64) {
+      int width = Math.min(64, wordWidth - done);
+      setBits(dst, dstBit + done, width, getBits(src, srcBit + done, width));
+    }
+  }
+
+  /**
+   * Returns width bits (1..64) starting at bit position bit
+   *
+   * @param storage
+   * @param bit
+   * @param width
+   * @return
+   */
+  static long getBits(long[] storage, long bit, int width) {
+    int w = (int) (bit >>> 6);
+    int shift = (int) bit & 63;
+    long value = storage[w] >>> shift;
+    if (shift + width > 64) {
+      value |= storage[w + 1] << (64 - shift);
+    }
+    return width == 64 ? value : value & ((1L << width) - 1);
+  }
+
+  /**
+   * Stores the low width bits (1..64) of value starting at bit position bit
+   *
+   * @param storage
+   * @param bit
+   * @param width
+   * @param value
+   */
+  static void setBits(long[] storage, long bit, int width, long value) {
+    long mask = width == 64 ? -1L : (1L << width) - 1;
+    value &= mask;
+    int w = (int) (bit >>> 6);
+    int shift = (int) bit & 63;
+    storage[w] = (storage[w] & ~(mask << shift)) | (value << shift);
+    if (shift + width > 64) {
+      int done = 64 - shift;
+      storage[w + 1] = (storage[w + 1] & ~(mask >>> done)) | (value >>> done);
+    }
+  }
+
+  /**
+   * Returns width bits (1..64) starting at bit position bit of an off-heap storage
+   *
+   * @param storage
+   * @param bit
+   * @param width
+   * @return
+   */
+  static long getBits(LongBuffer storage, long bit, int width) {
+    int w = (int) (bit >>> 6);
+    int shift = (int) bit & 63;
+    long value = storage.get(w) >>> shift;
+    if (shift + width > 64) {
+      value |= storage.get(w + 1) << (64 - shift);
+    }
+    return width == 64 ? value : value & ((1L << width) - 1);
+  }
+
+  /**
+   * Stores the low width bits (1..64) of value starting at bit position bit of an off-heap storage
+   *
+   * @param storage
+   * @param bit
+   * @param width
+   * @param value
+   */
+  static void setBits(LongBuffer storage, long bit, int width, long value) {
+    long mask = width == 64 ? -1L : (1L << width) - 1;
+    value &= mask;
+    int w = (int) (bit >>> 6);
+    int shift = (int) bit & 63;
+    storage.put(w, (storage.get(w) & ~(mask << shift)) | (value << shift));
+    if (shift + width > 64) {
+      int done = 64 - shift;
+      storage.put(w + 1, (storage.get(w + 1) & ~(mask >>> done)) | (value >>> done));
+    }
+  }
+}
@@ -321,6 +321,11 @@ public class Base extends TestMethod {
     devDataStorage = _devData;
   }
 
+  /** Returns the DeviceData instance of this testsuite, null until OrigenDeviceData.getInstance() */
+  public OrigenDeviceData getOrigenDeviceDataStorage() {
+    return devDataStorage;
+  }
+
   /** Release all locked variables */
   private void releaseVariables() {
       if (devDataStorage != null) {
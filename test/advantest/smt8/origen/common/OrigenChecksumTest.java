@@ -0,0 +1,129 @@
+package origen.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+/** Checksums kept up to date on every write, compared to a full recompute */
+public class OrigenChecksumTest {
+  private static final int[] SITES = {1, 2, 3, 4};
+  private static final long LO = 0x100;
+  private static final long HI = 0x4FF;
+
+  @Test
+  public void crc32MatchesTheByteImage() {
+    OrigenData data = new OrigenData(32, 32);
+    OrigenChecksum crc = OrigenChecksum.crc32(LO, HI);
+    data.trackChecksum(crc);
+    write(data, new Random(1));
+    for (int site : SITES) {
+      assertEquals("site " + site, crc32(data, site), data.getChecksum(crc, site));
+    }
+  }
+
+  @Test
+  public void crc32OfEmptyRange() {
+    OrigenData data = new OrigenData(16, 16);
+    OrigenChecksum crc = OrigenChecksum.crc32(0, 0xFFFF);
+    data.trackChecksum(crc);
+    CRC32 expected = new CRC32();
+    expected.update(filled(0x20000, 0xFF));
+    assertEquals(expected.getValue(), data.getChecksum(crc, 1));
+  }
+
+  @Test
+  public void trackedMatchesRecompute() {
+    List<Supplier<OrigenChecksum>> kinds =
+        Arrays.asList(
+            () -> OrigenChecksum.sum(16),
+            () -> OrigenChecksum.crc16(LO, HI),
+            () -> OrigenChecksum.crc32(LO, HI),
+            () -> OrigenChecksum.crc(8, 0x8C, 0, 0, 0x00, LO, HI));
+    OrigenData data = new OrigenData(24, 8);
+    OrigenChecksum[] checksums = new OrigenChecksum[kinds.size()];
+    for (int i = 0; i < checksums.length; i++) {
+      checksums[i] = kinds.get(i).get();
+      data.trackChecksum(checksums[i]);
+    }
+    write(data, new Random(2));
+
+    // trackChecksum() of data already set computes the checksums from scratch
+    OrigenData copy = new OrigenData(24, 8);
+    long[] word = new long[data.getNumParts()];
+    for (int i = 0; i < data.getNumUniqueAddr(); i++) {
+      long addr = data.getAddressAt(i);
+      for (int site : SITES) {
+        if (data.readInto(site, addr, word)) {
+          copy.setDataOnSite(site, addr, word.clone());
+        }
+      }
+    }
+    for (int i = 0; i < checksums.length; i++) {
+      OrigenChecksum fresh = kinds.get(i).get();
+      copy.trackChecksum(fresh);
+      for (int site : SITES) {
+        assertEquals(copy.getChecksum(fresh, site), data.getChecksum(checksums[i], site));
+      }
+    }
+  }
+
+  @Test
+  public void snapshotKeepsItsChecksum() {
+    OrigenData data = new OrigenData(32, 32);
+    OrigenChecksum crc = OrigenChecksum.crc32(LO, HI);
+    data.trackChecksum(crc);
+    write(data, new Random(3));
+    long before = data.getChecksum(crc, 2);
+    OrigenData snap = data.snapshot();
+    data.setDataOnSite(2, LO, new long[] {0x5A5A5A5AL});
+    assertEquals(before, snap.getChecksum(crc, 2));
+    assertEquals(crc32(data, 2), data.getChecksum(crc, 2));
+    snap.release();
+  }
+
+  /** Common words, site words and overwrites of both, inside and outside the range */
+  private static void write(OrigenData data, Random random) {
+    long mask = (1L << data.getPartWidth()) - 1;
+    long[] word = new long[data.getNumParts()];
+    for (int i = 0; i < 3000; i++) {
+      for (int p = 0; p < word.length; p++) {
+        word[p] = random.nextLong() & mask;
+      }
+      long addr = LO - 0x40 + random.nextInt((int) (HI - LO + 0x80));
+      int site = random.nextInt(SITES.length + 1);
+      if (site == 0) {
+        data.setData(addr, word.clone());
+      } else {
+        data.setDataOnSite(site, addr, word.clone());
+      }
+    }
+  }
+
+  /** CRC-32 of the byte image of LO..HI as seen by a site, recomputed from scratch */
+  private static long crc32(OrigenData data, int site) {
+    int bytesPerWord = (data.getWordWidth() + 7) / 8;
+    byte[] image = filled((int) (HI - LO + 1) * bytesPerWord, 0xFF);
+    long[] word = new long[data.getNumParts()];
+    for (long addr = LO; addr <= HI; addr++) {
+      if (data.readInto(site, addr, word)) {
+        for (int i = 0; i < bytesPerWord; i++) {
+          image[(int) (addr - LO) * bytesPerWord + i] = (byte) (word[0] >>> (8 * i));
+        }
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(image);
+    return crc.getValue();
+  }
+
+  private static byte[] filled(int n, int fill) {
+    byte[] bytes = new byte[n];
+    Arrays.fill(bytes, (byte) fill);
+    return bytes;
+  }
+}
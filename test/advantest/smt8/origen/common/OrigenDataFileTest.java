@@ -0,0 +1,146 @@
+package origen.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.Test;
+
+/** Round-trips of OrigenData through the OrigenDataFile format */
+public class OrigenDataFileTest {
+  private static final int[] SITES = {1, 2, 3, 4};
+
+  @Test
+  public void smallWordsRoundTrip() throws IOException {
+    OrigenData src = fill(new OrigenData(32, 32), 1);
+    assertSameData(src, viaChannel(src, new OrigenData(32, 32)));
+  }
+
+  @Test
+  public void wideWordsRoundTrip() throws IOException {
+    OrigenData src = fill(new OrigenData(136, 64), 2);
+    assertSameData(src, viaChannel(src, new OrigenData(136, 64)));
+  }
+
+  @Test
+  public void otherPartWidthLoads() throws IOException {
+    OrigenData src = new OrigenData(48, 16);
+    src.setData(7, new long[] {0x1111, 0x2222, 0x3333});
+    OrigenData dst = viaChannel(src, new OrigenData(48, 48));
+    long[] word = new long[1];
+    assertTrue(dst.readInto(1, 7, word));
+    assertEquals(0x333322221111L, word[0]);
+  }
+
+  @Test
+  public void concurrentDataRoundTrip() throws IOException {
+    OrigenConcurrentData src = new OrigenConcurrentData(32, 32);
+    fill(src, 3);
+    assertSameData(src, viaChannel(src, new OrigenConcurrentData(32, 32)));
+    // the snapshot taken for writing has been released, src stays writable
+    src.setDataOnSite(2, 0, new long[] {5});
+    long[] word = new long[1];
+    assertTrue(src.readInto(2, 0, word));
+    assertEquals(5, word[0]);
+  }
+
+  @Test
+  public void saveAndLoadFile() throws IOException {
+    OrigenData src = fill(new OrigenData(32, 32), 4);
+    Path file = Files.createTempFile("origen-data", ".orgd");
+    try {
+      int saved = new OrigenDataFile(src).save(file);
+      OrigenData dst = new OrigenData(32, 32);
+      assertEquals(saved, new OrigenDataFile(dst).load(file));
+      assertSameData(src, dst);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void loadsOnTopOfExistingData() throws IOException {
+    OrigenData src = new OrigenData(32, 32);
+    src.setData(1, new long[] {10});
+    OrigenData dst = new OrigenData(32, 32);
+    dst.setData(0, new long[] {20});
+    dst.setData(1, new long[] {30});
+    viaChannel(src, dst);
+    long[] word = new long[1];
+    assertTrue(dst.readInto(1, 0, word));
+    assertEquals(20, word[0]);
+    assertTrue(dst.readInto(1, 1, word));
+    assertEquals(10, word[0]);
+  }
+
+  @Test(expected = Error.class)
+  public void rejectsOtherFiles() throws IOException {
+    byte[] junk = new byte[64];
+    new OrigenDataFile(new OrigenData(32, 32))
+        .read(Channels.newChannel(new ByteArrayInputStream(junk)));
+  }
+
+  private static OrigenData viaChannel(OrigenData src, OrigenData dst) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    int written = new OrigenDataFile(src).write(Channels.newChannel(bytes));
+    int read =
+        new OrigenDataFile(dst)
+            .read(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(written, read);
+    return dst;
+  }
+
+  /** Common data with runs and gaps, and per-site data on top of it and beside it */
+  private static OrigenData fill(OrigenData data, long seed) {
+    Random random = new Random(seed);
+    int parts = data.getNumParts();
+    long mask = data.getPartWidth() == 64 ? -1L : (1L << data.getPartWidth()) - 1;
+    for (long a = 0; a < 2000; a += 1 + random.nextInt(3)) {
+      data.setData(a, word(random, parts, mask, data.getWordWidth()));
+    }
+    for (int site : SITES) {
+      for (int i = 0; i < 50; i++) {
+        long a = random.nextInt(3000);
+        data.setDataOnSite(site, a, word(random, parts, mask, data.getWordWidth()));
+      }
+    }
+    return data;
+  }
+
+  private static long[] word(Random random, int parts, long mask, int wordWidth) {
+    long[] word = new long[parts];
+    for (int p = 0; p < parts; p++) {
+      word[p] = random.nextLong() & mask;
+    }
+    int top = wordWidth - (parts - 1) * 64;
+    if (top < 64) {
+      word[parts - 1] &= (1L << top) - 1;
+    }
+    return word;
+  }
+
+  private static void assertSameData(OrigenData expected, OrigenData actual) {
+    assertEquals(expected.getNumUniqueAddr(), actual.getNumUniqueAddr());
+    long[] want = new long[expected.getNumParts()];
+    long[] got = new long[actual.getNumParts()];
+    for (int i = 0; i < expected.getNumUniqueAddr(); i++) {
+      long addr = expected.getAddressAt(i);
+      for (int site : SITES) {
+        if (expected.readInto(site, addr, want)) {
+          assertTrue(actual.readInto(site, addr, got));
+          assertArrayEquals("site " + site + " address " + addr, want, got);
+        } else {
+          assertFalse(actual.addrIsSet(site, addr));
+        }
+      }
+    }
+  }
+}
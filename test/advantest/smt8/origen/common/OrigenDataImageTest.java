@@ -0,0 +1,211 @@
+package origen.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Round-trips of OrigenDataImage through Intel-HEX, S-record and raw binary files */
+public class OrigenDataImageTest {
+  private Path dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("origen-image");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void intelHexRoundTrip() throws IOException {
+    roundTrip(OrigenDataImage.Format.INTEL_HEX, "image.hex");
+  }
+
+  @Test
+  public void srecRoundTrip() throws IOException {
+    roundTrip(OrigenDataImage.Format.SREC, "image.s19");
+  }
+
+  @Test
+  public void bigEndianRoundTrip() throws IOException {
+    OrigenData src = sparseData(32, 1);
+    OrigenDataImage image = new OrigenDataImage(src);
+    image.setBigEndian(true);
+    Path file = dir.resolve("image.hex");
+    image.save(file, 1);
+
+    OrigenData dst = new OrigenData(32, 32);
+    OrigenDataImage loaded = new OrigenDataImage(dst);
+    loaded.setBigEndian(true);
+    loaded.load(file);
+    assertSameData(src, dst, 1);
+  }
+
+  @Test
+  public void binaryRoundTripFillsGaps() throws IOException {
+    OrigenData src = new OrigenData(16, 16);
+    src.setData(0x10, new long[] {0x1234});
+    src.setData(0x13, new long[] {0xABCD});
+    OrigenDataImage image = new OrigenDataImage(src);
+    image.setRawOrigin(0x20);
+    Path file = dir.resolve("image.bin");
+    assertEquals(2, image.save(file, 1));
+    assertEquals(8, Files.size(file));
+
+    OrigenData dst = new OrigenData(16, 16);
+    OrigenDataImage loaded = new OrigenDataImage(dst);
+    loaded.setRawOrigin(0x20);
+    assertEquals(4, loaded.load(file));
+    assertArrayEquals(new long[] {0x1234}, read(dst, 1, 0x10));
+    assertArrayEquals(new long[] {0xFFFF}, read(dst, 1, 0x11));
+    assertArrayEquals(new long[] {0xFFFF}, read(dst, 1, 0x12));
+    assertArrayEquals(new long[] {0xABCD}, read(dst, 1, 0x13));
+  }
+
+  /** The top byte of a 12-bit word only holds 4 bits, nothing left from the load may leak into it */
+  @Test
+  public void oddWidthLoadThenSave() throws IOException {
+    Path in = dir.resolve("in.bin");
+    Files.write(in, new byte[] {(byte) 0xFF, (byte) 0xFF});
+    OrigenData data = new OrigenData(12, 12);
+    OrigenDataImage image = new OrigenDataImage(data);
+    image.load(in);
+    assertArrayEquals(new long[] {0xFFF}, read(data, 1, 0));
+
+    data.setData(0, new long[] {0xABC});
+    Path out = dir.resolve("out.bin");
+    image.save(out, 1);
+    assertArrayEquals(new byte[] {(byte) 0xBC, 0x0A}, Files.readAllBytes(out));
+    image.setBigEndian(true);
+    image.save(out, 1);
+    assertArrayEquals(new byte[] {0x0A, (byte) 0xBC}, Files.readAllBytes(out));
+  }
+
+  @Test
+  public void oddWidthRoundTrip() throws IOException {
+    OrigenData src = sparseData(12, 5);
+    OrigenDataImage image = new OrigenDataImage(src);
+    Path hex = dir.resolve("odd.hex");
+    image.save(hex, 1);
+    image.load(hex);
+    image.save(hex, 1);
+
+    OrigenData dst = new OrigenData(12, 12);
+    new OrigenDataImage(dst).load(hex);
+    assertSameData(src, dst, 1);
+  }
+
+  @Test
+  public void siteOverlay() throws IOException {
+    OrigenData src = new OrigenData(32, 32);
+    src.setData(0, new long[] {1});
+    src.setData(1, new long[] {2});
+    src.setDataOnSite(2, 1, new long[] {0x22});
+    Path file = dir.resolve("site2.hex");
+    new OrigenDataImage(src).save(file, 2);
+
+    OrigenData dst = new OrigenData(32, 32);
+    dst.setData(0, new long[] {1});
+    dst.setData(1, new long[] {2});
+    new OrigenDataImage(dst).load(file, 2);
+    assertSameData(src, dst, 1);
+    assertSameData(src, dst, 2);
+  }
+
+  /**
+   * Records of every length, each preceded by a lead record of every length, so for every record
+   * length some line starts right below the end of the output buffer
+   */
+  @Test
+  public void linesAcrossTheOutputBuffer() throws IOException {
+    for (int n = 1; n <= 16; n++) {
+      for (int lead = 0; lead <= 16; lead++) {
+        OrigenData src = new OrigenData(8, 8);
+        long a = 0;
+        for (int i = 0; i < lead; i++) {
+          src.setData(a++, new long[] {i});
+        }
+        a++;
+        // more than 64k of output, each record n bytes
+        for (int line = 0; line < 70000 / (13 + 2 * n); line++) {
+          for (int i = 0; i < n; i++) {
+            src.setData(a++, new long[] {(line + i) & 0xFF});
+          }
+          a++;
+        }
+        for (OrigenDataImage.Format fmt :
+            new OrigenDataImage.Format[] {
+              OrigenDataImage.Format.INTEL_HEX, OrigenDataImage.Format.SREC
+            }) {
+          Path file = dir.resolve("lines." + fmt);
+          new OrigenDataImage(src).save(file, fmt, 1);
+          OrigenData dst = new OrigenData(8, 8);
+          new OrigenDataImage(dst).load(file, fmt, -1);
+          assertSameData(src, dst, 1);
+        }
+      }
+    }
+  }
+
+  private void roundTrip(OrigenDataImage.Format fmt, String name) throws IOException {
+    OrigenData src = sparseData(32, 1);
+    Path file = dir.resolve(name);
+    int saved = new OrigenDataImage(src).save(file, fmt, 1);
+    assertEquals(src.getNumUniqueAddr(), saved);
+
+    OrigenData dst = new OrigenData(32, 32);
+    assertEquals(saved, new OrigenDataImage(dst).load(file, fmt, -1));
+    assertSameData(src, dst, 1);
+  }
+
+  /** Runs of consecutive words with gaps, crossing a 64k byte segment */
+  private static OrigenData sparseData(int wordWidth, long seed) {
+    Random random = new Random(seed);
+    OrigenData data = new OrigenData(wordWidth, wordWidth);
+    long a = 0x3F00;
+    while (a < 0x4200) {
+      int run = 1 + random.nextInt(40);
+      for (int i = 0; i < run; i++) {
+        data.setData(a++, new long[] {random.nextLong() & ((1L << wordWidth) - 1)});
+      }
+      a += 1 + random.nextInt(8);
+    }
+    return data;
+  }
+
+  private static long[] read(OrigenData data, int site, long addr) {
+    long[] word = new long[data.getNumParts()];
+    assertTrue("address not set: " + addr, data.readInto(site, addr, word));
+    return word;
+  }
+
+  private static void assertSameData(OrigenData expected, OrigenData actual, int site) {
+    assertEquals(expected.getNumUniqueAddr(), actual.getNumUniqueAddr());
+    for (int i = 0; i < expected.getNumUniqueAddr(); i++) {
+      long addr = expected.getAddressAt(i);
+      long[] word = new long[expected.getNumParts()];
+      if (expected.readInto(site, addr, word)) {
+        assertArrayEquals("address " + addr, word, read(actual, site, addr));
+      } else {
+        assertFalse(actual.addrIsSet(site, addr));
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package origen.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Sparse and dense pages of OrigenDataLayer. Dense pages are taken from a pool, so the pool shows
+ * when a page has been promoted or demoted
+ */
+public class OrigenDataLayerTest {
+  private static final int PAGE = OrigenDataLayer.PAGE_SIZE;
+
+  private final OrigenWordFormat format = new OrigenWordFormat(32, 32);
+  private final OrigenPagePool pool = new OrigenPagePool(format);
+  private final long pageBytes = format.longsFor(PAGE) * 8L;
+
+  @Test
+  public void staysSparseBelowPromoteCount() {
+    OrigenDataLayer layer = new OrigenDataLayer(format, 0, pool);
+    for (int o = 0; o < OrigenDataLayer.PROMOTE_COUNT - 1; o++) {
+      layer.put(3 * PAGE + o, word(o));
+    }
+    assertEquals(0, pool.usedBytes());
+    assertEquals(OrigenDataLayer.PROMOTE_COUNT - 1, layer.size());
+  }
+
+  @Test
+  public void promotesFullEnoughPage() {
+    OrigenDataLayer layer = new OrigenDataLayer(format, 0, pool);
+    layer.put(0, word(-1));
+    for (int o = 0; o < OrigenDataLayer.PROMOTE_COUNT; o++) {
+      layer.put(5 * PAGE + 2 * o, word(o));
+    }
+    assertEquals(pageBytes, pool.usedBytes());
+    assertEquals(OrigenDataLayer.PROMOTE_COUNT + 1, layer.size());
+    for (int o = 0; o < OrigenDataLayer.PROMOTE_COUNT; o++) {
+      assertWord(layer, 5 * PAGE + 2 * o, word(o));
+      assertFalse(layer.contains(5 * PAGE + 2 * o + 1));
+    }
+    assertWord(layer, 0, word(-1));
+    // writes to the dense page, added and overwritten
+    layer.put(5 * PAGE + 1, word(100));
+    layer.put(5 * PAGE, word(101));
+    assertWord(layer, 5 * PAGE + 1, word(100));
+    assertWord(layer, 5 * PAGE, word(101));
+    assertEquals(OrigenDataLayer.PROMOTE_COUNT + 2, layer.size());
+  }
+
+  @Test
+  public void demotesNearlyEmptyPage() {
+    OrigenDataLayer layer = new OrigenDataLayer(format, 0, pool);
+    for (int o = 0; o < PAGE; o++) {
+      layer.put(7 * PAGE + o, word(o));
+    }
+    assertEquals(pageBytes, pool.usedBytes());
+    int o = 0;
+    while (PAGE - o >= OrigenDataLayer.DEMOTE_COUNT) {
+      assertTrue(layer.remove(7 * PAGE + o++));
+    }
+    assertEquals(0, pool.usedBytes());
+    assertEquals(PAGE - o, layer.size());
+    for (int i = 0; i < PAGE; i++) {
+      if (i < o) {
+        assertFalse(layer.contains(7 * PAGE + i));
+      } else {
+        assertWord(layer, 7 * PAGE + i, word(i));
+      }
+    }
+    // and promoted again
+    for (int i = 0; i < o; i++) {
+      layer.put(7 * PAGE + i, word(i));
+    }
+    assertEquals(pageBytes, pool.usedBytes());
+    assertEquals(PAGE, layer.size());
+  }
+
+  @Test
+  public void addressesCoverSparseAndDense() {
+    OrigenDataLayer layer = new OrigenDataLayer(format, 0, pool);
+    for (int o = 0; o < PAGE; o += 2) {
+      layer.put(PAGE + o, word(o));
+    }
+    layer.put(10 * PAGE + 3, word(3));
+    layer.put(-5, word(5));
+    long[] addrs = layer.addresses();
+    Arrays.sort(addrs);
+    assertEquals(PAGE / 2 + 2, addrs.length);
+    assertEquals(-5, addrs[0]);
+    assertEquals(PAGE, addrs[1]);
+    assertEquals(10 * PAGE + 3, addrs[addrs.length - 1]);
+  }
+
+  @Test
+  public void sharedPagesAreCopiedOnWrite() {
+    OrigenDataLayer layer = new OrigenDataLayer(format, 0, pool);
+    for (int o = 0; o < PAGE; o++) {
+      layer.put(2 * PAGE + o, word(o));
+    }
+    OrigenDataLayer copy = layer.copy();
+    assertEquals(pageBytes, pool.usedBytes());
+    copy.put(2 * PAGE, word(1000));
+    assertEquals(2 * pageBytes, pool.usedBytes());
+    assertWord(layer, 2 * PAGE, word(0));
+    assertWord(copy, 2 * PAGE, word(1000));
+
+    // demoting the copy leaves the page of the original alone
+    OrigenDataLayer other = layer.copy();
+    for (int o = 0; o < PAGE; o++) {
+      other.remove(2 * PAGE + o);
+    }
+    assertEquals(2 * pageBytes, pool.usedBytes());
+    assertWord(layer, 2 * PAGE + 1, word(1));
+
+    layer.release();
+    copy.release();
+    other.release();
+    assertEquals(0, pool.usedBytes());
+  }
+
+  @Test
+  public void randomWritesMatchAMap() {
+    Random random = new Random(4);
+    OrigenDataLayer layer = new OrigenDataLayer(format);
+    Map<Long, Long> expected = new HashMap<Long, Long>();
+    for (int i = 0; i < 200000; i++) {
+      long a = random.nextInt(4 * PAGE);
+      if (random.nextInt(3) == 0) {
+        assertEquals(expected.remove(a) != null, layer.remove(a));
+      } else {
+        long v = random.nextInt() & 0xFFFFFFFFL;
+        assertEquals(expected.put(a, v) == null, layer.put(a, new long[] {v}));
+      }
+    }
+    assertEquals(expected.size(), layer.size());
+    for (Map.Entry<Long, Long> e : expected.entrySet()) {
+      assertWord(layer, e.getKey(), new long[] {e.getValue()});
+    }
+  }
+
+  private static long[] word(int i) {
+    return new long[] {(0x9E3779B9L * i) & 0xFFFFFFFFL};
+  }
+
+  private static void assertWord(OrigenDataLayer layer, long a, long[] expected) {
+    long[] word = new long[1];
+    assertTrue("address " + a, layer.get(a, word));
+    assertArrayEquals("address " + a, expected, word);
+  }
+}
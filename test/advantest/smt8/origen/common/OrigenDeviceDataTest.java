@@ -0,0 +1,398 @@
+package origen.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import origen.common.OrigenDeviceData.OrigenDeviceDataDouble;
+import origen.common.OrigenDeviceData.OrigenDeviceDataLockStats;
+import origen.common.OrigenDeviceData.OrigenDeviceDataTypeBase;
+import origen.common.OrigenDeviceData.OrigenVAR;
+import origen.test_methods.Base;
+import xoc.dta.ITestContext;
+import xoc.dta.UncheckedDTAException;
+import xoc.dta.datatypes.MultiSiteDouble;
+import xoc.dta.datatypes.MultiSiteLong;
+
+/** Locking of OrigenDeviceData variables and what readers of other testsuites see meanwhile */
+public class OrigenDeviceDataTest
+{
+    enum VAR implements OrigenVAR
+    {
+        trim, offset;
+
+        @Override public Class<? extends OrigenDeviceDataTypeBase> getType()
+        {
+            return OrigenDeviceDataDouble.class;
+        }
+    }
+
+    /** A testsuite, as far as OrigenDeviceData needs it */
+    static class Suite extends Base
+    {
+        private final String suiteName;
+        boolean background = false;
+
+        Suite(String _suiteName)
+        {
+            suiteName = _suiteName;
+        }
+
+        OrigenDeviceData devData()
+        {
+            return OrigenDeviceData.getInstance(this);
+        }
+
+        @Override public boolean hasRelease93kBeenCalled()
+        {
+            return background;
+        }
+
+        @Override public ITestContext getContext()
+        {
+            return (ITestContext) Proxy.newProxyInstance(ITestContext.class.getClassLoader(), new Class<?>[] {ITestContext.class},
+                    (proxy, method, args) -> "getTestSuiteName".equals(method.getName()) ? suiteName : null);
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        OrigenDeviceData.clearStorage();
+    }
+
+    @Test
+    public void readCommittedSeesTheCommittedValueOnly()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        assertEquals(1, a.devData().getVersion(VAR.trim));
+
+        a.devData().reserve(VAR.trim);
+        a.background = true;
+        // the holder changes its value in place
+        a.devData().getDouble(VAR.trim).set(1, 99.0);
+
+        Suite b = new Suite("suiteB");
+        b.devData().setReadCommitted(true);
+        MultiSiteDouble seen = b.devData().getDouble(VAR.trim);
+        assertEquals(1.0, seen.get(1), 0);
+
+        a.devData().releaseVariables();
+        assertEquals(2, b.devData().getVersion(VAR.trim));
+        assertEquals(99.0, b.devData().getDouble(VAR.trim).get(1), 0);
+        // the version read before stays as it was
+        assertEquals(1.0, seen.get(1), 0);
+    }
+
+    @Test
+    public void readCommittedOfASiteWrite()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.offset, 1, 5.0);
+        a.devData().reserve(VAR.offset, new int[] {2});
+        a.background = true;
+        a.devData().set(VAR.offset, 2, 7.0);
+
+        Suite b = new Suite("suiteB");
+        b.devData().setReadCommitted(true);
+        assertEquals(1, b.devData().getVersion(VAR.offset));
+        MultiSiteDouble seen = b.devData().getDouble(VAR.offset);
+        assertEquals(5.0, seen.get(1), 0);
+        a.devData().releaseVariables();
+        assertEquals(2, b.devData().getVersion(VAR.offset));
+        assertEquals(7.0, b.devData().getDouble(VAR.offset).get(2), 0);
+        assertEquals(5.0, b.devData().getDouble(VAR.offset).get(1), 0);
+    }
+
+    @Test
+    public void releaseWithoutChangeKeepsTheVersion()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        a.devData().releaseVariables();
+        Suite b = new Suite("suiteB");
+        b.devData().reserve(VAR.trim);
+        b.devData().releaseVariables();
+        assertEquals(1, b.devData().getVersion(VAR.trim));
+    }
+
+    private static long deadline()
+    {
+        return System.nanoTime() + 1000000000L;
+    }
+
+    /** Waits up to a second for a future, far less than the timeout of a variable */
+    private static <T> T done(Future<T> future)
+    {
+        try
+        {
+            return future.get(1, TimeUnit.SECONDS);
+        }
+        catch (Exception e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void assertFailsWithUncheckedDTAException(Future<?> future)
+    {
+        try
+        {
+            future.get(1, TimeUnit.SECONDS);
+            fail("no exception");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof UncheckedDTAException);
+        }
+        catch (Exception e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void getAsyncOfAFreeVariable()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        CompletableFuture<MultiSiteDouble> trim = new Suite("suiteB").devData().getAsync(VAR.trim, MultiSiteDouble.class);
+        assertTrue(trim.isDone());
+        assertEquals(1.0, trim.join().get(1), 0);
+    }
+
+    @Test
+    public void getAsyncCompletesOnRelease()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        a.devData().reserve(VAR.trim);
+        a.background = true;
+        a.devData().set(VAR.trim, new MultiSiteDouble(2.0));
+
+        CompletableFuture<MultiSiteDouble> trim = new Suite("suiteB").devData().getAsync(VAR.trim, MultiSiteDouble.class);
+        assertFalse(trim.isDone());
+        a.devData().releaseVariables();
+        assertEquals(2.0, done(trim).get(1), 0);
+    }
+
+    @Test
+    public void getAsyncOfTheWrongType()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        a.devData().reserve(VAR.trim);
+        a.background = true;
+        CompletableFuture<MultiSiteLong> trim = new Suite("suiteB").devData().getAsync(VAR.trim, MultiSiteLong.class);
+        a.devData().releaseVariables();
+        assertFailsWithUncheckedDTAException(trim);
+    }
+
+    @Test
+    public void readWhenReleasedTimesOut()
+    {
+        OrigenDeviceDataDouble var = new OrigenDeviceDataDouble("trim");
+        var.set(new MultiSiteDouble(1.0));
+        var.timeOut_us = 1000;
+        assertTrue(var.lock("suiteA", deadline()));
+        assertFailsWithUncheckedDTAException(var.readWhenReleased(var::value));
+        var.release();
+    }
+
+    @Test
+    public void whenAvailableRunsInACompletionThread()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        Suite b = new Suite("suiteB");
+        AtomicReference<Thread> ranIn = new AtomicReference<Thread>();
+        done(b.devData().whenAvailable(VAR.trim, MultiSiteDouble.class, value -> ranIn.set(Thread.currentThread())));
+        assertNotSame(Thread.currentThread(), ranIn.get());
+
+        a.devData().reserve(VAR.trim);
+        a.background = true;
+        CompletableFuture<Void> consumed = b.devData().whenAvailable(VAR.trim, MultiSiteDouble.class, value -> ranIn.set(Thread.currentThread()));
+        a.devData().releaseVariables();
+        done(consumed);
+        assertNotSame(Thread.currentThread(), ranIn.get());
+    }
+
+    /** A consumer reading another variable of the releasing testsuite waits for it in its own thread */
+    @Test
+    public void whenAvailableDoesNotHoldUpTheRelease()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.trim, new MultiSiteDouble(1.0));
+        a.devData().set(VAR.offset, new MultiSiteDouble(2.0));
+        a.devData().reserve(VAR.trim, VAR.offset);
+        a.background = true;
+
+        Suite b = new Suite("suiteB");
+        CompletableFuture<Void> consumed = b.devData().whenAvailable(VAR.trim, MultiSiteDouble.class,
+                trim -> assertEquals(2.0, b.devData().getDouble(VAR.offset).get(1), 0));
+        long start = System.nanoTime();
+        a.devData().releaseVarName(VAR.trim);
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        assertFalse(consumed.isDone());
+        a.devData().releaseVariables();
+        done(consumed);
+    }
+
+    /** Each holder of a site writes it while the other one is still in the middle of writing its own */
+    @Test
+    public void holdersOfDifferentSitesWriteConcurrently()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.offset, new MultiSiteDouble(0.0));
+        Suite b = new Suite("suiteB");
+        a.devData().reserve(VAR.offset, new int[] {1});
+        b.devData().reserve(VAR.offset, new int[] {2});
+        a.background = true;
+        b.background = true;
+
+        CountDownLatch aWrote = new CountDownLatch(1);
+        CountDownLatch bWrote = new CountDownLatch(1);
+        CompletableFuture<Boolean> writerA = CompletableFuture.supplyAsync(() -> write(a, 1, 1.0, aWrote, bWrote));
+        CompletableFuture<Boolean> writerB = CompletableFuture.supplyAsync(() -> write(b, 2, 2.0, bWrote, aWrote));
+        assertTrue(done(writerA));
+        assertTrue(done(writerB));
+        a.devData().releaseVariables();
+        b.devData().releaseVariables();
+
+        MultiSiteDouble offset = new Suite("suiteC").devData().getDouble(VAR.offset);
+        assertEquals(1.0, offset.get(1), 0);
+        assertEquals(2.0, offset.get(2), 0);
+    }
+
+    /** Writes a site, then waits for the other writer, then writes again. False if the other writer never got to write */
+    private static boolean write(Suite suite, int site, double value, CountDownLatch wrote, CountDownLatch otherWrote)
+    {
+        suite.devData().set(VAR.offset, site, -value);
+        wrote.countDown();
+        try
+        {
+            if (otherWrote.await(1, TimeUnit.SECONDS) == false)
+            {
+                return false;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            return false;
+        }
+        suite.devData().set(VAR.offset, site, value);
+        return true;
+    }
+
+    @Test
+    public void readerOfAReleasedSiteIsNotBlockedByAnotherSite()
+    {
+        Suite a = new Suite("suiteA");
+        a.devData().set(VAR.offset, new MultiSiteDouble(0.0));
+        Suite b = new Suite("suiteB");
+        b.devData().reserve(VAR.offset, new int[] {2});
+        b.background = true;
+        b.devData().set(VAR.offset, 2, 9.0);
+        b.devData().releaseVariables();
+
+        a.devData().reserve(VAR.offset, new int[] {1});
+        a.background = true;
+        a.devData().set(VAR.offset, 1, 5.0);
+
+        long start = System.nanoTime();
+        assertEquals(9.0, new Suite("suiteC").devData().getDouble(VAR.offset, 2), 0);
+        assertTrue(System.nanoTime() - start < 1000000000L);
+        a.devData().releaseVariables();
+        assertEquals(5.0, new Suite("suiteC").devData().getDouble(VAR.offset, 1), 0);
+    }
+
+    @Test
+    public void rollbackCommitsNothing()
+    {
+        OrigenDeviceDataDouble var = new OrigenDeviceDataDouble("trim");
+        var.set(new MultiSiteDouble(1.0));
+        assertTrue(var.lock("suiteA", deadline()));
+        var.rollback();
+        assertEquals(0, var.getVersion());
+    }
+
+    @Test
+    public void rollbackRecordsNoHoldTime() throws InterruptedException
+    {
+        OrigenDeviceDataDouble var = new OrigenDeviceDataDouble("trim");
+        OrigenDeviceDataLockStats stats = var.getLockStats();
+        assertTrue(var.lock("suiteA", deadline()));
+        assertEquals("suiteA", stats.getHolder());
+        Thread.sleep(2);
+        var.rollback();
+        assertEquals(1, stats.getAcquisitions());
+        assertEquals(0, stats.getTotalHoldNanos());
+        assertNull(stats.getHolder());
+    }
+
+    @Test
+    public void rollbackFreesTheVariable()
+    {
+        OrigenDeviceDataDouble var = new OrigenDeviceDataDouble("trim");
+        var.set(new MultiSiteDouble(2.0));
+        assertTrue(var.lock("suiteA", deadline()));
+        CompletableFuture<Object> read = var.readWhenReleased(var::value);
+        assertFalse(read.isDone());
+        var.rollback();
+        assertEquals(2.0, ((MultiSiteDouble) done(read)).get(1), 0);
+        assertTrue(var.lock("suiteB", deadline()));
+        var.release();
+        // rolling back a released variable does nothing
+        var.rollback();
+        assertTrue(var.lock("suiteC", deadline()));
+        var.release();
+    }
+
+    @Test
+    public void releaseCommits()
+    {
+        OrigenDeviceDataDouble var = new OrigenDeviceDataDouble("trim");
+        assertTrue(var.lock("suiteA", deadline()));
+        var.set(new MultiSiteDouble(3.0));
+        var.release();
+        assertEquals(1, var.getVersion());
+        assertEquals(1, var.getLockStats().getAcquisitions());
+        assertTrue(var.getLockStats().getTotalHoldNanos() > 0);
+    }
+
+    @Test
+    public void rollbackAfterTimeoutOfAnotherVariable()
+    {
+        // what reserve() does when the second variable is held by another suite
+        OrigenDeviceDataDouble first = new OrigenDeviceDataDouble("first");
+        OrigenDeviceDataDouble second = new OrigenDeviceDataDouble("second");
+        first.set(new MultiSiteDouble(4.0));
+        assertTrue(second.lock("suiteB", deadline()));
+        long deadline = System.nanoTime() + 1000000L;
+        assertTrue(first.lock("suiteA", deadline));
+        assertFalse(second.lock("suiteA", deadline));
+        first.rollback();
+        assertEquals(0, first.getVersion());
+        assertEquals(0, first.getLockStats().getTotalHoldNanos());
+        assertEquals(1, second.getLockStats().getTimeouts());
+        assertEquals("suiteB", second.getLockStats().getLastTimeoutHolder());
+        assertTrue(first.lock("suiteC", deadline()));
+        first.release();
+        second.release();
+    }
+}
@@ -0,0 +1,117 @@
+package origen.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Off-heap pages of OrigenOffHeapData go back to the pool once no snapshot refers to them */
+public class OrigenPagePoolTest {
+  private static final int PAGE = OrigenDataLayer.PAGE_SIZE;
+
+  private OrigenOffHeapData data;
+
+  @Before
+  public void setUp() {
+    data = new OrigenOffHeapData(32, 32);
+  }
+
+  @After
+  public void tearDown() {
+    data.close();
+  }
+
+  @Test
+  public void releasedSnapshotReturnsItsPages() {
+    fillPages(0, 4);
+    long used = data.getOffHeapUsed();
+    assertTrue(used > 0);
+
+    OrigenData snap = data.snapshot();
+    fillPages(100, 4);
+    assertEquals(2 * used, data.getOffHeapUsed());
+    snap.release();
+    // the written pages have been copied, the ones only the snapshot had are free again
+    assertEquals(used, data.getOffHeapUsed());
+  }
+
+  @Test
+  public void clearAllDataAfterSnapshot() {
+    fillPages(0, 4);
+    long used = data.getOffHeapUsed();
+    OrigenData snap = data.snapshot();
+    data.clearAllData();
+    assertEquals(used, data.getOffHeapUsed());
+    assertWord(snap, 1, 0);
+    snap.release();
+    assertEquals(0, data.getOffHeapUsed());
+  }
+
+  @Test
+  public void capacityStaysFlatOverManySnapshots() {
+    fillPages(0, 4);
+    OrigenData first = data.snapshot();
+    fillPages(1, 4);
+    first.release();
+    long capacity = data.getOffHeapCapacity();
+    for (int round = 2; round < 50; round++) {
+      OrigenData snap = data.snapshot();
+      fillPages(round, 4);
+      assertWord(snap, 0, round - 1);
+      snap.release();
+    }
+    assertEquals(capacity, data.getOffHeapCapacity());
+  }
+
+  @Test
+  public void collectedSnapshotReturnsItsPages() throws InterruptedException {
+    fillPages(0, 4);
+    long used = data.getOffHeapUsed();
+    takeSnapshotAndDropIt();
+    fillPages(1, 4);
+    assertEquals(2 * used, data.getOffHeapUsed());
+    // the pool looks for collected snapshots on every allocation and snapshot
+    for (int i = 0; i < 100 && data.getOffHeapUsed() > used; i++) {
+      System.gc();
+      Thread.sleep(10);
+      data.snapshot().release();
+    }
+    assertEquals(used, data.getOffHeapUsed());
+  }
+
+  @Test
+  public void releaseTwiceIsHarmless() {
+    fillPages(0, 2);
+    long used = data.getOffHeapUsed();
+    OrigenData snap = data.snapshot();
+    snap.release();
+    snap.release();
+    fillPages(1, 2);
+    assertEquals(used, data.getOffHeapUsed());
+  }
+
+  @Test(expected = Error.class)
+  public void releaseOfWritableDataThrows() {
+    data.release();
+  }
+
+  private void takeSnapshotAndDropIt() {
+    data.snapshot();
+  }
+
+  /** Fills n full pages, the value of a word is its page offset plus seed */
+  private void fillPages(int seed, int n) {
+    for (long a = 0; a < n * PAGE; a++) {
+      data.setData(a, new long[] {(a % PAGE) + seed});
+    }
+  }
+
+  private static void assertWord(OrigenData data, long addr, long value) {
+    long[] word = new long[1];
+    assertTrue(data.readInto(1, addr, word));
+    assertArrayEquals(new long[] {(addr % PAGE) + value}, word);
+  }
+}